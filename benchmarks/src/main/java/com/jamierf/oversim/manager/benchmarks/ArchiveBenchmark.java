@@ -0,0 +1,67 @@
+package com.jamierf.oversim.manager.benchmarks;
+
+import com.google.common.io.Files;
+import com.jamierf.oversim.manager.util.DirectoryArchiver;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compressing the raw results of a config, laid out the same way as a real result directory.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ArchiveBenchmark {
+
+	@Param({ "TAR_GZIP", "TAR_GZIP_PARALLEL", "ZIP" })
+	public DirectoryArchiver.ArchiveType type;
+
+	@Param({ "50" })
+	public int runs;
+
+	@Param({ "1000000" })
+	public int vectorBytes;
+
+	protected File root;
+	protected File resultDir;
+	protected File archive;
+	protected DirectoryArchiver archiver;
+
+	@Setup
+	public void setup() throws IOException {
+		root = Files.createTempDir();
+
+		resultDir = new File(root, "Benchmark-1");
+		final File logDir = new File(resultDir, "logs");
+		logDir.mkdirs();
+
+		final ScaGenerator generator = new ScaGenerator(1000, 10, 1);
+		for (int run = 0;run < runs;run++) {
+			generator.writeSca(new File(resultDir, "Benchmark-" + run + ".sca"), "Benchmark", run, "$N=" + (run / 5));
+			generator.writeVec(new File(resultDir, "Benchmark-" + run + ".vec"), vectorBytes);
+			generator.writeVec(new File(resultDir, "Benchmark-" + run + ".vci"), vectorBytes / 100);
+			generator.writeVec(new File(logDir, "run" + run + ".log"), vectorBytes / 10);
+		}
+
+		archive = new File(root, "Benchmark-1." + type.getExtension());
+		archiver = new DirectoryArchiver(type);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(root);
+	}
+
+	@Benchmark
+	public File compress() throws IOException {
+		archiver.compress(resultDir, archive);
+		return archive;
+	}
+}
@@ -0,0 +1,140 @@
+package com.jamierf.oversim.manager.benchmarks;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import com.jamierf.oversim.manager.Manager;
+import com.jamierf.oversim.manager.SimulationThread;
+import com.jamierf.oversim.manager.runnable.Run;
+import com.jamierf.oversim.manager.runnable.SimulationRun;
+import com.jamierf.oversim.manager.stats.DurationHistogram;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Pushes the whole manager through a large number of runs of a fake OverSim, to measure how much time the
+ * manager itself adds to each run: starting the process, queueing, logging, parsing, and writing out the CSV and
+ * archive at the end.
+ *
+ * Usage: ManagerOverhead [runs] [run duration ms] [threads] [scalars per run]
+ *
+ * Everything happens in a temporary directory laid out like an OverSim install, so no OverSim is needed.
+ */
+public class ManagerOverhead {
+
+	private static final int REPETITIONS = 5;
+
+	/**
+	 * A manager which records when the last simulation finished, and returns from start rather than exiting.
+	 */
+	private static class InstrumentedManager extends Manager {
+
+		private volatile long lastRunTime;
+		private volatile long finishTime;
+
+		public InstrumentedManager(Configuration config) throws IOException, ConfigurationException {
+			super (config);
+		}
+
+		@Override
+		public void completed(Run runnable, long duration) {
+			if (runnable instanceof SimulationRun)
+				lastRunTime = System.currentTimeMillis();
+
+			super.completed(runnable, duration);
+		}
+
+		@Override
+		public synchronized void shutdown() {
+			finishTime = System.currentTimeMillis();
+			log.close();
+		}
+
+		public DurationHistogram getRunDurations() {
+			return runDurations;
+		}
+
+		public long getBusyTime() {
+			long busy = 0;
+			for (SimulationThread thread : threads)
+				busy += thread.getBusyTime();
+
+			return busy;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		final int duration = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		final int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		final int scalars = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+		final int groups = (runs + REPETITIONS - 1) / REPETITIONS;
+		final int totalRuns = groups * REPETITIONS;
+
+		final File root = Files.createTempDir();
+		final PrintStream console = System.out;
+
+		try {
+			// Lay out a fake OverSim install, with the executable where the manager looks for it
+			final File workingDir = new File(root, "oversim/simulations");
+			final File overSim = new File(root, "oversim/src/OverSim");
+
+			new File(workingDir, "results").mkdirs();
+			overSim.getParentFile().mkdirs();
+
+			final String script = Resources.toString(Resources.getResource("fake-oversim.sh"), Charsets.UTF_8);
+			Files.write(script.replaceFirst("\n", "\nexport FAKE_RUNS=" + totalRuns + " FAKE_DURATION=" + duration + " FAKE_SCALARS=" + scalars + " FAKE_REPETITIONS=" + REPETITIONS + "\n"), overSim, Charsets.UTF_8);
+			overSim.setExecutable(true);
+
+			Files.write("[Config Benchmark]\n**.n = ${N=0.." + (groups - 1) + "}\nrepeat = " + REPETITIONS + "\n", new File(workingDir, "omnetpp.ini"), Charsets.UTF_8);
+
+			final Configuration config = new BaseConfiguration();
+			config.setProperty("simulation.working-dir", workingDir.getPath());
+			config.setProperty("simulation.max-threads", threads);
+			config.setProperty("data.compress", true);
+			config.addProperty("data.scalar", "GlobalStatistics: Simulation Time");
+			for (int i = 0;i < Math.min(scalars, 20);i++)
+				config.addProperty("data.scalar", ScaGenerator.getScalarName(i));
+			config.addProperty("data.vector", "Lookup Hop Count");
+
+			// Keep the manager output out of the way of the results
+			System.setOut(new PrintStream(new FileOutputStream(new File(root, "manager.log")), false));
+
+			final InstrumentedManager manager = new InstrumentedManager(config);
+			manager.addRunConfig("Benchmark", "1");
+
+			final long startTime = System.currentTimeMillis();
+			manager.start();
+			final long wallTime = manager.finishTime - startTime;
+
+			System.setOut(console);
+
+			final double idealTime = (double) totalRuns * duration / threads;
+			final double meanDuration = manager.getRunDurations().getMean();
+
+			console.println("Runs:                  " + totalRuns + " on " + threads + " threads, " + duration + "ms each, " + scalars + " scalars each");
+			console.println("Wall time:             " + wallTime + "ms (ideal " + Math.round(idealTime) + "ms)");
+			console.println("Throughput:            " + String.format("%.1f", totalRuns * 1000.0 / wallTime) + " runs/s");
+			console.println("Run duration:          mean " + String.format("%.1f", meanDuration) + "ms, p99 " + manager.getRunDurations().get99thPercentile() + "ms");
+			console.println("Process overhead:      " + String.format("%.2f", meanDuration - duration) + "ms per run");
+			console.println("Total overhead:        " + String.format("%.2f", ((double) wallTime * threads - (double) totalRuns * duration) / totalRuns) + "ms of core time per run");
+			console.println("Core utilisation:      " + String.format("%.1f", 100.0 * manager.getBusyTime() / ((double) wallTime * threads)) + "%");
+			console.println("Last run to results:   " + (manager.finishTime - manager.lastRunTime) + "ms (CSV and archive)");
+		}
+		finally {
+			System.setOut(console);
+			FileUtils.deleteDirectory(root);
+		}
+
+		// The simulation threads are still waiting on an empty queue
+		System.exit(0);
+	}
+}
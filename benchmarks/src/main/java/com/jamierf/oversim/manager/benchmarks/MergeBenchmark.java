@@ -0,0 +1,65 @@
+package com.jamierf.oversim.manager.benchmarks;
+
+import com.jamierf.oversim.manager.DataSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging parsed runs into a shared data set from several data processing threads at once. With a single group
+ * every thread merges into the same statistics, the worst case for contention.
+ *
+ * Runs on 4 threads by default, use -t to try others.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class MergeBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Shared {
+
+		@Param({ "1", "16", "1024" })
+		public int groups;
+
+		@Param({ "10", "100" })
+		public int scalars;
+
+		protected DataSet data;
+
+		@Setup(Level.Iteration)
+		public void setup() {
+			data = new DataSet();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Run {
+
+		protected final Random random = new Random();
+		protected String[] uids;
+		protected SortedMap<String, String> values;
+
+		@Setup
+		public void setup(Shared shared) {
+			uids = new String[shared.groups];
+			for (int i = 0;i < uids.length;i++)
+				uids[i] = "\"$N=" + i + "\"";
+
+			values = new TreeMap<String, String>();
+			for (int i = 0;i < shared.scalars;i++)
+				values.put(ScaGenerator.getScalarName(i), String.valueOf(random.nextDouble() * 1000));
+		}
+	}
+
+	@Benchmark
+	public void merge(Shared shared, Run run) {
+		shared.data.mergeData(run.uids[run.random.nextInt(run.uids.length)], run.values);
+	}
+}
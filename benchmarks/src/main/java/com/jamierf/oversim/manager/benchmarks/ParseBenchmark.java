@@ -0,0 +1,61 @@
+package com.jamierf.oversim.manager.benchmarks;
+
+import com.google.common.io.Files;
+import com.jamierf.oversim.manager.SimulationConfig;
+import com.jamierf.oversim.manager.runnable.SimulationData;
+import com.jamierf.oversim.manager.stats.SummarySpec;
+import com.jamierf.oversim.manager.util.ScalarExtractor;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a single .sca file, the work done for every completed run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ParseBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int scalars;
+
+	@Param({ "10", "100" })
+	public int wanted;
+
+	protected File root;
+	protected SimulationConfig config;
+	protected ScalarExtractor extractor;
+
+	@Setup
+	public void setup() throws IOException {
+		root = Files.createTempDir();
+
+		config = new SimulationConfig("omnetpp.ini", "Benchmark", root, "1", Collections.<String, SummarySpec>emptyMap());
+
+		final ScaGenerator generator = new ScaGenerator(scalars, Math.min(wanted, scalars), 1);
+		generator.writeSca(new File(config.getResultDir(), "Benchmark-0.sca"), "Benchmark", 0, "$N=100, $churn=0.5");
+
+		extractor = new ScalarExtractor(generator.getWantedScalars());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(root);
+	}
+
+	@Benchmark
+	public SimulationData parse() {
+		final SimulationData data = new SimulationData(0, extractor, config);
+		data.run();
+
+		return data;
+	}
+}
@@ -0,0 +1,122 @@
+package com.jamierf.oversim.manager.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * Writes synthetic OverSim result files, shaped like the real thing, for the benchmarks to chew on.
+ *
+ * Scalars are named after a fixed set of statistics spread across a number of modules, so any number of them can
+ * be generated. Every nth scalar is one of the wanted scalars, so the wanted ones are spread through the file the
+ * same way they are in real results rather than bunched together.
+ */
+public class ScaGenerator {
+
+	private static final String[] STATISTICS = {
+		"Sent Maintenance Bytes/s.mean",
+		"Received Maintenance Bytes/s.mean",
+		"Lookup Success Ratio.mean",
+		"Lookup Hop Count.mean",
+		"Number of nodes.mean",
+		"Session Time.mean",
+		"Dropped Messages.sum",
+		"Latency.stddev",
+	};
+
+	protected final int scalarCount;
+	protected final int wantedCount;
+	protected final Random random;
+
+	public ScaGenerator(int scalarCount, int wantedCount, long seed) {
+		if (wantedCount > scalarCount)
+			throw new IllegalArgumentException("Can't want more scalars (" + wantedCount + ") than there are (" + scalarCount + ").");
+
+		this.scalarCount = scalarCount;
+		this.wantedCount = wantedCount;
+
+		random = new Random(seed);
+	}
+
+	public static String getScalarName(int index) {
+		return "Module" + (index / STATISTICS.length) + ": " + STATISTICS[index % STATISTICS.length];
+	}
+
+	/**
+	 * Returns the names of the wanted scalars, as they'd be listed in manager.ini.
+	 */
+	public String[] getWantedScalars() {
+		final String[] wanted = new String[wantedCount];
+		final int stride = scalarCount / Math.max(1, wantedCount);
+
+		for (int i = 0;i < wantedCount;i++)
+			wanted[i] = getScalarName(i * stride);
+
+		return wanted;
+	}
+
+	public void writeSca(File file, String configName, int runId, String iterationVars) throws IOException {
+		PrintWriter out = null;
+
+		try {
+			out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+
+			out.println("version 2");
+			out.println("run " + configName + "-" + runId + "-20130101-00:00:00-" + runId);
+			out.println("attr configname " + configName);
+			out.println("attr datetime 20130101-00:00:00");
+			out.println("attr experiment " + configName);
+			out.println("attr inifile omnetpp.ini");
+			out.println("attr iterationvars \"" + iterationVars + "\"");
+			out.println("attr iterationvars2 \"" + iterationVars + ", $repetition=" + runId + "\"");
+			out.println("attr measurement \"" + iterationVars + "\"");
+			out.println("attr network OverSim");
+			out.println("attr processid " + (1000 + runId));
+			out.println("attr repetition " + runId);
+			out.println("attr replication #" + runId);
+			out.println("attr resultdir results");
+			out.println("attr runnumber " + runId);
+			out.println("attr seedset " + runId);
+			out.println();
+
+			for (int i = 0;i < scalarCount;i++) {
+				out.println("scalar OverSim.globalObserver.globalStatistics \t\"" + getScalarName(i) + "\" \t" + random.nextDouble() * 1000);
+			}
+		}
+		finally {
+			if (out != null)
+				out.close();
+		}
+	}
+
+	/**
+	 * Writes a vector file of roughly the given size, made up of the same sort of text OverSim writes.
+	 */
+	public void writeVec(File file, int bytes) throws IOException {
+		PrintWriter out = null;
+
+		try {
+			out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+
+			out.println("version 2");
+			out.println("vector 0  OverSim.globalObserver.globalStatistics  \"Lookup Hop Count\"  ETV");
+
+			double time = 0;
+			for (long written = 0, event = 0;written < bytes;event++) {
+				time += random.nextDouble();
+
+				final String line = "0\t" + event + "\t" + time + "\t" + random.nextInt(20);
+				out.println(line);
+
+				written += line.length() + 1;
+			}
+		}
+		finally {
+			if (out != null)
+				out.close();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.jamierf.oversim.manager.benchmarks;
+
+import com.jamierf.oversim.manager.DataSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing out the CSV of a config with a large number of parameter combinations.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class WriteCsvBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int groups;
+
+	@Param({ "20" })
+	public int scalars;
+
+	@Param({ "5" })
+	public int repetitions;
+
+	protected DataSet data;
+	protected File csv;
+
+	@Setup
+	public void setup() throws IOException {
+		final Random random = new Random(1);
+
+		data = new DataSet();
+		for (int group = 0;group < groups;group++) {
+			for (int repetition = 0;repetition < repetitions;repetition++) {
+				final SortedMap<String, String> values = new TreeMap<String, String>();
+				for (int i = 0;i < scalars;i++)
+					values.put(ScaGenerator.getScalarName(i), String.valueOf(random.nextDouble() * 1000));
+
+				data.mergeData("\"$N=" + group + ", $churn=0.5\"", values);
+			}
+		}
+
+		csv = File.createTempFile("benchmark", ".csv");
+	}
+
+	@TearDown
+	public void tearDown() {
+		csv.delete();
+	}
+
+	@Benchmark
+	public File write() throws IOException {
+		data.writeCSV(csv);
+		return csv;
+	}
+}
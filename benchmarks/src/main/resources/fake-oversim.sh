@@ -0,0 +1,87 @@
+#!/bin/bash
+# A stand-in for OverSim, for measuring the overhead of the manager without a real OverSim install.
+#
+# Answers -x with a run count like OverSim does, otherwise takes as long as a run should and writes result
+# files shaped like the real ones. Everything is controlled from the environment:
+#
+#   FAKE_RUNS          the number of runs reported by -x (default: 100)
+#   FAKE_DURATION      how long each run takes in ms (default: 0)
+#   FAKE_BURN          burn CPU for the duration rather than sleeping, if set to 1 (default: 0)
+#   FAKE_SCALARS       the number of scalars written to each .sca (default: 100)
+#   FAKE_VECTOR_BYTES  the approximate size of each .vec (default: 10000)
+#   FAKE_REPETITIONS   the number of runs sharing each set of iterationvars (default: 5)
+
+RUNS=${FAKE_RUNS:-100}
+DURATION=${FAKE_DURATION:-0}
+SCALARS=${FAKE_SCALARS:-100}
+VECTOR_BYTES=${FAKE_VECTOR_BYTES:-10000}
+REPETITIONS=${FAKE_REPETITIONS:-5}
+
+CONFIG=General
+RUN=0
+RESULT_DIR=results
+
+for arg in "$@"; do
+	case "$arg" in
+		-x*) echo "OMNeT++ Discrete Event Simulation"; echo "Config: ${arg#-x}"; echo "Number of runs: $RUNS"; exit 0;;
+		-c*) CONFIG=${arg#-c};;
+		-r*) RUN=${arg#-r};;
+		--result-dir=*) RESULT_DIR=${arg#--result-dir=};;
+	esac
+done
+
+echo "OMNeT++ Discrete Event Simulation"
+echo "Preparing for running configuration $CONFIG, run #$RUN..."
+
+if [ "$DURATION" -gt 0 ]; then
+	if [ "${FAKE_BURN:-0}" = 1 ]; then
+		END=$(( $(date +%s%N) + DURATION * 1000000 ))
+		while [ "$(date +%s%N)" -lt "$END" ]; do :; done
+	else
+		sleep "$(awk "BEGIN { print $DURATION / 1000 }")"
+	fi
+fi
+
+BASE="$RESULT_DIR/$CONFIG-$RUN"
+VARS="\$N=$(( RUN / REPETITIONS ))"
+REPETITION=$(( RUN % REPETITIONS ))
+
+awk -v config="$CONFIG" -v run="$RUN" -v vars="$VARS" -v repetition="$REPETITION" -v scalars="$SCALARS" 'BEGIN {
+	srand(run);
+	split("Sent Maintenance Bytes/s.mean,Received Maintenance Bytes/s.mean,Lookup Success Ratio.mean,Lookup Hop Count.mean,Number of nodes.mean,Session Time.mean,Dropped Messages.sum,Latency.stddev", stats, ",");
+
+	print "version 2";
+	print "run " config "-" run "-20130101-00:00:00-" run;
+	print "attr configname " config;
+	print "attr iterationvars " vars;
+	print "attr iterationvars2 \"" vars ", $repetition=" repetition "\"";
+	print "attr network OverSim";
+	print "attr repetition " repetition;
+	print "attr runnumber " run;
+	print "";
+
+	print "scalar OverSim.globalObserver.globalStatistics \t\"GlobalStatistics: Simulation Time\" \t" 1000 + rand() * 10;
+	for (i = 0; i < scalars; i++)
+		printf "scalar OverSim.globalObserver.globalStatistics \t\"Module%d: %s\" \t%f\n", int(i / 8), stats[i % 8 + 1], rand() * 1000;
+}' > "$BASE.sca"
+
+awk -v bytes="$VECTOR_BYTES" -v run="$RUN" 'BEGIN {
+	srand(run);
+	print "version 2";
+	print "vector 0  OverSim.globalObserver.globalStatistics  \"Lookup Hop Count\"  ETV";
+
+	for (written = 0; written < bytes; event++) {
+		time += rand();
+		line = sprintf("0\t%d\t%f\t%d", event, time, int(rand() * 20));
+		print line;
+		written += length(line) + 1;
+	}
+}' > "$BASE.vec"
+
+# Index the vector as a single block, starting after the two header lines
+SIZE=$(stat -c %s "$BASE.vec")
+OFFSET=$(head -n 2 "$BASE.vec" | wc -c)
+printf 'file %d %d\nversion 2\nvector 0  OverSim.globalObserver.globalStatistics  "Lookup Hop Count"  ETV\n0\t%d\t%d\t0\t0\t0\t0\t0\t0\t0\t0\t0\n' "$SIZE" "$(stat -c %Y "$BASE.vec")" "$OFFSET" "$(( SIZE - OFFSET ))" > "$BASE.vci"
+
+echo "End."
+exit 0
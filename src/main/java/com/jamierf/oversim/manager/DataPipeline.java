@@ -0,0 +1,120 @@
+package com.jamierf.oversim.manager;
+
+import com.google.common.collect.Lists;
+import com.jamierf.oversim.manager.runnable.SimulationData;
+import org.apache.commons.lang.time.DurationFormatUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes the results of completed runs on a pool of its own, so parsing never waits behind queued
+ * simulations or takes up a simulation thread.
+ *
+ * The pool has a bounded queue, once it is full the thread submitting more data processes it itself. Data
+ * submitted before the pipeline is started is held until then.
+ */
+public class DataPipeline {
+
+	private static final Logger logger = LoggerFactory.getLogger(DataPipeline.class);
+	private static final int QUEUE_SIZE = 1024;
+
+	protected final Manager manager;
+	protected final ThreadPoolExecutor executor;
+	protected final List<SimulationData> staged;
+	protected boolean started;
+
+	public DataPipeline(Manager manager, int threadCount) {
+		this.manager = manager;
+
+		executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ProcessorFactory(), new ThreadPoolExecutor.CallerRunsPolicy());
+		staged = Lists.newArrayList();
+		started = false;
+	}
+
+	public void submit(SimulationData data) {
+		synchronized (this) {
+			if (!started) {
+				staged.add(data);
+				return;
+			}
+		}
+
+		executor.execute(new Task(data));
+	}
+
+	public void start() {
+		final List<SimulationData> pending;
+
+		synchronized (this) {
+			if (started)
+				return;
+
+			started = true;
+
+			pending = Lists.newArrayList(staged);
+			staged.clear();
+		}
+
+		for (SimulationData data : pending)
+			executor.execute(new Task(data));
+	}
+
+	public int getThreadCount() {
+		return executor.getCorePoolSize();
+	}
+
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	private class Task implements Runnable {
+
+		private final SimulationData data;
+
+		public Task(SimulationData data) {
+			this.data = data;
+		}
+
+		@Override
+		public void run() {
+			final Thread thread = Thread.currentThread();
+
+			try {
+				final long startTime = System.currentTimeMillis();
+
+				manager.started(thread, data);
+				data.run();
+
+				final long duration = System.currentTimeMillis() - startTime;
+				manager.println(thread.getName() + " completed " + data + " in " + DurationFormatUtils.formatDurationWords(duration, true, true) + ".");
+
+				manager.completed(data, duration);
+			}
+			catch (Exception e) {
+				if (logger.isWarnEnabled())
+					logger.warn(thread.getName() + " failed", e);
+
+				manager.failed(thread, data);
+			}
+		}
+	}
+
+	private static class ProcessorFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "DataProcessor(" + count.incrementAndGet() + ")");
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -1,118 +1,248 @@
 package com.jamierf.oversim.manager;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
-import org.apache.commons.lang.StringUtils;
-import org.apache.commons.math.stat.descriptive.SummaryStatistics;
+import com.jamierf.oversim.manager.output.CsvSink;
+import com.jamierf.oversim.manager.output.DataSink;
+import com.jamierf.oversim.manager.stats.RunningStatistics;
+import com.jamierf.oversim.manager.stats.SketchedStatistics;
+import com.jamierf.oversim.manager.stats.SummarySpec;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class DataSet {
 
     protected final SortedSet<String> headers;
-	protected final SortedMap<String, SortedMap<String, Queue<String>>> data;
+	protected final ConcurrentNavigableMap<String, SortedMap<String, RunningStatistics>> data;
+	protected final ReadWriteLock snapshotLock;
+	protected final Map<String, SummarySpec> summaries;
+	protected final List<DataSink> sinks;
 
 	public DataSet() {
-        headers = Sets.newTreeSet();
-		data = Maps.newTreeMap();
+		this (Collections.<String, SummarySpec>emptyMap());
+	}
+
+	public DataSet(Map<String, SummarySpec> summaries) {
+		this.summaries = summaries;
+
+        headers = new ConcurrentSkipListSet<String>();
+		data = new ConcurrentSkipListMap<String, SortedMap<String, RunningStatistics>>();
+		snapshotLock = new ReentrantReadWriteLock();
+		sinks = new CopyOnWriteArrayList<DataSink>();
 	}
 
 	public void mergeData(String uid, SortedMap<String, String> scalars) {
-		synchronized (this) {
-			// Fetch the queue of data for this set of parameters
-            SortedMap<String, Queue<String>> map = data.get(uid);
+		// Merges share the lock with each other, only taking a snapshot excludes them
+		snapshotLock.readLock().lock();
+
+		try {
+			// Fetch the statistics for this set of parameters
+            SortedMap<String, RunningStatistics> map = data.get(uid);
 			if (map == null) {
-				// If we don't already have a queue yet, create one
-				map = Maps.newTreeMap();
-				data.put(uid, map);
+				// If we don't already have statistics yet, create them
+				final SortedMap<String, RunningStatistics> created = new TreeMap<String, RunningStatistics>();
+
+				map = data.putIfAbsent(uid, created);
+				if (map == null)
+					map = created;
 			}
 
-            headers.addAll(scalars.keySet());
-            for (Map.Entry<String, String> scalar : scalars.entrySet()) {
-                Queue<String> queue = map.get(scalar.getKey());
-                if (queue == null) {
-                    queue = Lists.newLinkedList();
-                    map.put(scalar.getKey(), queue);
-                }
+            for (String header : scalars.keySet()) {
+                if (!headers.contains(header))
+                    headers.add(header);
+            }
 
-                queue.add(scalar.getValue());
+            // Each set of parameters is locked separately so merges into different sets proceed in parallel
+            synchronized (map) {
+                this.mergeInto(map, scalars);
             }
+
+			for (DataSink sink : sinks)
+				sink.addRun(uid, scalars);
+		}
+		finally {
+			snapshotLock.readLock().unlock();
 		}
 	}
 
-	public synchronized boolean hasData() {
-		return !data.isEmpty();
+	/**
+	 * Adds everything from another data set to this one, as if its runs had been merged here. The other data set
+	 * must not be merged into at the same time, and shouldn't be used afterwards as its statistics may be shared.
+	 */
+	public void merge(DataSet other) {
+		snapshotLock.readLock().lock();
+
+		try {
+			headers.addAll(other.headers);
+
+			for (Map.Entry<String, SortedMap<String, RunningStatistics>> entry : other.data.entrySet()) {
+				final SortedMap<String, RunningStatistics> map = data.putIfAbsent(entry.getKey(), entry.getValue());
+				if (map == null)
+					continue;
+
+				synchronized (map) {
+					for (Map.Entry<String, RunningStatistics> stats : entry.getValue().entrySet()) {
+						final RunningStatistics existing = map.get(stats.getKey());
+						if (existing == null)
+							map.put(stats.getKey(), stats.getValue());
+						else
+							existing.merge(stats.getValue());
+					}
+				}
+			}
+		}
+		finally {
+			snapshotLock.readLock().unlock();
+		}
+	}
+
+	private void mergeInto(SortedMap<String, RunningStatistics> map, SortedMap<String, String> scalars) {
+		for (Map.Entry<String, String> scalar : scalars.entrySet()) {
+			RunningStatistics stats = map.get(scalar.getKey());
+			if (stats == null) {
+				stats = this.getSummary(scalar.getKey()).needsSketch() ? new SketchedStatistics() : new RunningStatistics();
+				map.put(scalar.getKey(), stats);
+			}
+
+			// Parse the value once and fold it into the running statistics
+			try {
+				stats.addValue(Double.parseDouble(scalar.getValue()));
+			}
+			catch (NumberFormatException e) { }
+		}
+	}
+
+	/**
+	 * Returns whether every given scalar of a group has been seen at least the given number of times, with a
+	 * confidence interval of the mean no wider either side than the given fraction of the mean.
+	 */
+	public boolean isPrecise(String uid, Collection<String> scalars, double confidence, double precision, int minCount) {
+		final SortedMap<String, RunningStatistics> map = data.get(uid);
+		if (map == null)
+			return false;
+
+		synchronized (map) {
+			for (String scalar : scalars) {
+				final RunningStatistics stats = map.get(scalar);
+				if (stats == null || stats.getN() < minCount)
+					return false;
+
+				final double halfWidth = stats.getConfidenceHalfWidth(confidence);
+				if (Double.isNaN(halfWidth) || halfWidth > precision * Math.abs(stats.getMean()))
+					return false;
+			}
+		}
+
+		return true;
 	}
 
-	public synchronized void writeCSV(File csvFile) throws IOException {
-		if (!this.hasData()) {
-			throw new RuntimeException("Cannot write empty data set to CSV.");
-        }
+	public SummarySpec getSummary(String header) {
+		final SummarySpec summary = summaries.get(header);
+		return summary == null ? SummarySpec.NONE : summary;
+	}
 
-		PrintWriter out = null;
+	/**
+	 * Removes the statistics of a set of parameters which won't see any more runs, returning them, or null if it
+	 * had none.
+	 */
+	public SortedMap<String, RunningStatistics> removeGroup(String uid) {
+		snapshotLock.readLock().lock();
 
 		try {
-			final Collection<Object> row = Lists.newLinkedList();
+			return data.remove(uid);
+		}
+		finally {
+			snapshotLock.readLock().unlock();
+		}
+	}
 
-			out = new PrintWriter(new FileWriter(csvFile), true);
+	/**
+	 * Puts back the statistics of a set of parameters removed earlier, adding to whatever has been merged into it
+	 * since.
+	 */
+	public void restoreGroup(String uid, SortedMap<String, RunningStatistics> stats) {
+		snapshotLock.readLock().lock();
 
-			// Write the header
-			row.clear();
-			row.add("uid");
+		try {
+			headers.addAll(stats.keySet());
 
-			for (String header : headers) {
-				row.add(header + ".mean");
-				row.add(header + ".stddev");
-			}
+			final SortedMap<String, RunningStatistics> map = data.putIfAbsent(uid, stats);
+			if (map == null)
+				return;
 
-			out.println(StringUtils.join(row, ','));
+			synchronized (map) {
+				for (Map.Entry<String, RunningStatistics> entry : stats.entrySet()) {
+					final RunningStatistics restored = entry.getValue();
+					final RunningStatistics existing = map.get(entry.getKey());
 
-			// Combine all sets and produce summary statistics
-			for (Map.Entry<String, SortedMap<String, Queue<String>>> entry : data.entrySet()) {
-				final String uid = entry.getKey();
-				final SortedMap<String, Queue<String>> map = entry.getValue();
+					// The restored statistics take the place of the existing ones, so they know not to give quantiles
+					// which no longer cover every value
+					if (existing != null)
+						restored.merge(existing);
 
-				if (map.isEmpty()) {
-					continue;
-                }
-
-				final List<SummaryStatistics> stats = Lists.newLinkedList();
-
-                for (String header : headers) {
-                    final SummaryStatistics summaryStats = new SummaryStatistics();
-                    stats.add(summaryStats);
-
-                    final Queue<String> values = map.get(header);
-                    if (values != null) {
-                        for (String value : values) {
-                            try {
-                                summaryStats.addValue(Double.parseDouble(value));
-                            }
-                            catch (NumberFormatException e) { }
-                        }
-                    }
-                }
-
-				// Output all the statistics into a row
-				row.clear();
-				row.add(uid.replaceAll(",", ""));
-
-				for (SummaryStatistics stat : stats) {
-					row.add(stat.getMean());
-					row.add(stat.getStandardDeviation());
+					map.put(entry.getKey(), restored);
 				}
-
-				out.println(StringUtils.join(row, ','));
 			}
 		}
 		finally {
-			if (out != null)
-				out.close();
+			snapshotLock.readLock().unlock();
 		}
 	}
+
+	public boolean hasData() {
+		return !data.isEmpty();
+	}
+
+	public void writeCSV(File csvFile) throws IOException {
+		this.write(new CsvSink(csvFile));
+	}
+
+	/**
+	 * Attaches a sink which sees every run merged from now on, and is written to once the data set is complete.
+	 */
+	public void addSink(DataSink sink) {
+		sinks.add(sink);
+	}
+
+	public List<DataSink> getSinks() {
+		return Collections.unmodifiableList(sinks);
+	}
+
+	/**
+	 * Writes the data set to the given sink, holding off any merges so it is written from a consistent snapshot.
+	 */
+	public void write(DataSink sink) throws IOException {
+		if (!this.hasData())
+			throw new RuntimeException("Cannot write empty data set to " + sink.getFile().getName() + ".");
+
+		snapshotLock.writeLock().lock();
+
+		try {
+			sink.write(this);
+		}
+		finally {
+			snapshotLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the name of every scalar seen so far, in order. Only safe to iterate while being written to a sink.
+	 */
+	public SortedSet<String> getHeaders() {
+		return Collections.unmodifiableSortedSet(headers);
+	}
+
+	/**
+	 * Returns the statistics of each scalar for each set of parameters, ordered by uid. Only safe to iterate
+	 * while being written to a sink.
+	 */
+	public SortedMap<String, SortedMap<String, RunningStatistics>> getGroups() {
+		return Collections.unmodifiableSortedMap(data);
+	}
 }
@@ -0,0 +1,176 @@
+package com.jamierf.oversim.manager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.jamierf.oversim.manager.runnable.SimulationRun;
+import com.jamierf.oversim.manager.stats.RunningStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers how long previous simulation runs took, so the duration of future runs can be estimated.
+ *
+ * Durations are known as soon as a run finishes but its iterationvars only once its results are parsed, so the
+ * history file holds two kinds of tab separated line which are joined when loading:
+ * <pre>
+ * D  config  run id  duration (ms)
+ * V  config  run id  iterationvars
+ * </pre>
+ * Estimates are made per config and iterationvars when the iterationvars of a run are known, falling back to
+ * the same run id of the same config.
+ */
+public class DurationHistory {
+
+	private static final Logger logger = LoggerFactory.getLogger(DurationHistory.class);
+
+	protected final File file;
+	protected final Map<String, String> runVars;
+	protected final Map<String, RunningStatistics> runDurations;
+	protected final Map<String, RunningStatistics> varsDurations;
+	protected final Map<String, Long> unassigned;
+	protected PrintWriter out;
+
+	public DurationHistory(File file) throws IOException {
+		this.file = file;
+
+		runVars = Maps.newHashMap();
+		runDurations = Maps.newHashMap();
+		varsDurations = Maps.newHashMap();
+		unassigned = Maps.newHashMap();
+
+		if (file.exists())
+			this.load();
+
+		out = new PrintWriter(new BufferedWriter(new FileWriter(file, true)));
+	}
+
+	private void load() throws IOException {
+		final List<String> keys = Lists.newArrayList();
+		final List<Long> durations = Lists.newArrayList();
+
+		BufferedReader in = null;
+
+		try {
+			in = new BufferedReader(new FileReader(file));
+
+			for (String line;(line = in.readLine()) != null;) {
+				final String[] fields = line.split("\t", 4);
+				if (fields.length != 4)
+					continue;
+
+				final String key = runKey(fields[1], fields[2]);
+
+				if (fields[0].equals("V")) {
+					runVars.put(key, fields[3]);
+				}
+				else if (fields[0].equals("D")) {
+					try {
+						durations.add(Long.parseLong(fields[3]));
+						keys.add(key);
+					}
+					catch (NumberFormatException e) {
+						// Probably a partially written line
+					}
+				}
+			}
+		}
+		finally {
+			if (in != null)
+				in.close();
+		}
+
+		// Only now we have seen every V line can durations be grouped by iterationvars
+		for (int i = 0;i < keys.size();i++) {
+			final String key = keys.get(i);
+			record(runDurations, key, durations.get(i));
+
+			final String vars = runVars.get(key);
+			if (vars != null)
+				record(varsDurations, varsKey(key.substring(0, key.indexOf('\t')), vars), durations.get(i));
+		}
+
+		if (logger.isInfoEnabled())
+			logger.info("Loaded " + keys.size() + " run durations from " + file);
+	}
+
+	private static String runKey(String config, Object runId) {
+		return config + '\t' + runId;
+	}
+
+	private static String varsKey(String config, String vars) {
+		return config + '\t' + vars;
+	}
+
+	private static void record(Map<String, RunningStatistics> map, String key, long duration) {
+		RunningStatistics stats = map.get(key);
+		if (stats == null) {
+			stats = new RunningStatistics();
+			map.put(key, stats);
+		}
+
+		stats.addValue(duration);
+	}
+
+	public synchronized void recordDuration(SimulationRun run, long duration) {
+		final String config = run.getConfig().getName();
+		final String key = runKey(config, run.getRunId());
+
+		record(runDurations, key, duration);
+
+		// If we don't know the iterationvars yet, hold on to the duration until they are parsed
+		final String vars = runVars.get(key);
+		if (vars != null)
+			record(varsDurations, varsKey(config, vars), duration);
+		else
+			unassigned.put(key, duration);
+
+		out.println("D\t" + key + "\t" + duration);
+		out.flush();
+	}
+
+	public synchronized void recordIterationVars(SimulationConfig config, int runId, String iterationVars) {
+		final String key = runKey(config.getName(), runId);
+		final String vars = iterationVars.replace('\t', ' ').replace('\n', ' ');
+
+		final Long duration = unassigned.remove(key);
+		if (duration != null)
+			record(varsDurations, varsKey(config.getName(), vars), duration);
+
+		if (vars.equals(runVars.get(key)))
+			return;
+
+		runVars.put(key, vars);
+
+		out.println("V\t" + key + "\t" + vars);
+		out.flush();
+	}
+
+	/**
+	 * Returns the expected duration of a run in milliseconds, or -1 if there is nothing to base an estimate on.
+	 */
+	public synchronized long estimate(SimulationRun run) {
+		final String config = run.getConfig().getName();
+		final String key = runKey(config, run.getRunId());
+
+		// Before a run has been parsed, its iterationvars may still be known from expanding the config
+		String vars = runVars.get(key);
+		if (vars == null)
+			vars = run.getConfig().getExpectedIterationVars(run.getRunId());
+
+		if (vars != null) {
+			final RunningStatistics stats = varsDurations.get(varsKey(config, vars));
+			if (stats != null)
+				return (long) stats.getMean();
+		}
+
+		final RunningStatistics stats = runDurations.get(key);
+		if (stats != null)
+			return (long) stats.getMean();
+
+		return -1;
+	}
+}
@@ -0,0 +1,177 @@
+package com.jamierf.oversim.manager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Collects the messages of the manager without making the threads logging them wait on any lock or any I/O.
+ *
+ * Each event claims the next sequence number and is stored in a fixed size ring, which holds the most recent
+ * events for {@link #getBuffer()}. A background thread follows the ring behind the writers, printing each event
+ * to the console and optionally appending it with a timestamp and thread name to a log file. Should the console
+ * ever fall a whole ring behind, the events it missed are counted as dropped rather than holding anyone up.
+ */
+public class EventLog extends Thread {
+
+	private static final Logger logger = LoggerFactory.getLogger(EventLog.class);
+	private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(100);
+
+	protected static class Event {
+
+		protected final long sequence;
+		protected final long time;
+		protected final String thread;
+		protected final String message;
+
+		protected Event(long sequence, long time, String thread, String message) {
+			this.sequence = sequence;
+			this.time = time;
+			this.thread = thread;
+			this.message = message;
+		}
+	}
+
+	protected final AtomicReferenceArray<Event> ring;
+	protected final AtomicLong next;
+	protected final PrintStream console;
+	protected final PrintWriter file;
+	protected final SimpleDateFormat dateFormat;
+	protected volatile boolean closed;
+	protected long cursor;
+
+	public EventLog(int capacity, PrintStream console, File logFile) throws IOException {
+		ring = new AtomicReferenceArray<Event>(capacity);
+		next = new AtomicLong(0);
+
+		this.console = console;
+		file = logFile == null ? null : new PrintWriter(new BufferedWriter(new FileWriter(logFile, true)));
+		dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+		closed = false;
+		cursor = 0;
+
+		super.setDaemon(true);
+		super.setName("EventLog");
+
+		// Make sure nothing logged just before exiting is lost, however the process exits
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				EventLog.this.close();
+			}
+		});
+	}
+
+	public void log(String message) {
+		final long sequence = next.getAndIncrement();
+		ring.set((int) (sequence % ring.length()), new Event(sequence, System.currentTimeMillis(), Thread.currentThread().getName(), message));
+
+		LockSupport.unpark(this);
+	}
+
+	/**
+	 * Returns the most recent events, oldest first, one per line.
+	 */
+	public String getBuffer() {
+		final long end = next.get();
+		final StringBuilder buffer = new StringBuilder();
+
+		for (long sequence = Math.max(0, end - ring.length());sequence < end;sequence++) {
+			final Event event = ring.get((int) (sequence % ring.length()));
+
+			// Skip anything still being written, or already overwritten by a newer event
+			if (event != null && event.sequence == sequence)
+				buffer.append(event.message).append('\n');
+		}
+
+		return buffer.toString().trim();
+	}
+
+	@Override
+	public void run() {
+		while (!closed) {
+			if (!this.drain())
+				LockSupport.parkNanos(this, IDLE_WAIT);
+		}
+
+		// Catch anything logged while closing
+		this.drain();
+		this.flush();
+	}
+
+	/**
+	 * Writes out every event available so far, returning whether there were any.
+	 */
+	private boolean drain() {
+		boolean drained = false;
+
+		while (cursor < next.get()) {
+			final Event event = ring.get((int) (cursor % ring.length()));
+
+			// The next event has been claimed but not stored yet
+			if (event == null || event.sequence < cursor)
+				break;
+
+			if (event.sequence > cursor) {
+				this.write(null, "... " + (event.sequence - cursor) + " messages dropped.");
+				cursor = event.sequence;
+			}
+
+			this.write(event, event.message);
+			cursor++;
+
+			drained = true;
+		}
+
+		if (drained)
+			this.flush();
+
+		return drained;
+	}
+
+	private void write(Event event, String message) {
+		console.println(message);
+
+		if (file != null) {
+			final long time = event == null ? System.currentTimeMillis() : event.time;
+			file.println(dateFormat.format(new Date(time)) + " [" + (event == null ? super.getName() : event.thread) + "] " + message);
+		}
+	}
+
+	private void flush() {
+		console.flush();
+
+		if (file != null)
+			file.flush();
+	}
+
+	/**
+	 * Writes out everything logged so far and stops the log.
+	 */
+	public synchronized void close() {
+		if (closed)
+			return;
+
+		closed = true;
+		LockSupport.unpark(this);
+
+		try {
+			this.join(TimeUnit.SECONDS.toMillis(5));
+		}
+		catch (InterruptedException e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Interrupted while closing event log", e);
+		}
+
+		if (file != null)
+			file.close();
+	}
+}
@@ -1,21 +1,35 @@
 package com.jamierf.oversim.manager;
 
 import com.google.common.collect.Lists;
+import com.jamierf.oversim.manager.ini.IniFile;
+import com.jamierf.oversim.manager.ini.SweepExpander;
+import com.jamierf.oversim.manager.output.DataSink;
+import com.jamierf.oversim.manager.remote.Coordinator;
 import com.jamierf.oversim.manager.runnable.Run;
 import com.jamierf.oversim.manager.runnable.SimulationData;
 import com.jamierf.oversim.manager.runnable.SimulationRun;
+import com.jamierf.oversim.manager.stats.DurationHistogram;
+import com.jamierf.oversim.manager.stats.SummarySpec;
 import com.jamierf.oversim.manager.util.DirectoryArchiver;
+import com.jamierf.oversim.manager.util.MBeans;
+import com.jamierf.oversim.manager.util.ProcessMemory;
+import com.jamierf.oversim.manager.util.ScalarExtractor;
+import com.jamierf.oversim.manager.util.VectorExtractor;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.ConversionException;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DurationFormatUtils;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class Manager {
+public class Manager implements ManagerMBean {
 
 	protected final File overSim;
 	protected final File workingDir;
@@ -24,16 +38,39 @@ public class Manager {
 	protected final List<SimulationConfig> configs;
 	protected final Map<String, String> globalParameters;
 	protected final List<SimulationThread> threads;
-	protected final List<Run> queue;
-	protected final String[] wantedScalars;
+	protected final RunScheduler scheduler;
+	protected final MemoryGovernor governor;
+	protected final DurationHistory history;
+	protected final RunCountCache runCounts;
+	protected final IniFile ini;
+	protected final AtomicInteger completedRuns;
+	protected final AtomicInteger failedRuns;
+	protected final AtomicInteger skippedRuns;
+	protected final DurationHistogram runDurations;
+	protected final DurationHistogram parseDurations;
+	protected final DataPipeline pipeline;
+	protected final Coordinator coordinator;
+	protected final ScalarExtractor extractor;
+	protected final VectorExtractor vectorExtractor;
+	protected final Map<String, SummarySpec> summaries;
 	protected final boolean deleteData;
-	protected final StringBuilder buffer;
-	protected final boolean shuffle;
+	protected final List<DataSink.Type> outputs;
+	protected final boolean incremental;
+	protected final boolean parseCache;
+	protected final long wantedHash;
+	protected final boolean compressLogs;
+	protected final boolean journal;
+	protected final List<String> adaptiveScalars;
+	protected final double adaptiveConfidence;
+	protected final double adaptivePrecision;
+	protected final int adaptiveMinRepetitions;
+	protected final EventLog log;
 	protected boolean paused;
 	protected DirectoryArchiver archiver;
+	protected final boolean archiveIncrementally;
 	protected long startTime;
 	protected boolean finished;
-	protected int pendingRuns;
+	protected volatile boolean holding;
 
 	public Manager(Configuration config) throws IOException, ConfigurationException {
 		// Count how many available cores we should use (max)
@@ -51,17 +88,27 @@ public class Manager {
 			}
 		}
 
-		// Should we shuffle runs after adding them?
-		shuffle = config.getBoolean("simulation.shuffle-runs", true);
-
-		buffer = new StringBuilder();
+		// Everything printed goes through the event log, keeping console and file output off the calling threads
+		final String logFile = config.getString("simulation.log-file", null);
+		log = new EventLog(config.getInt("simulation.log-buffer", 1000), System.out, logFile == null ? null : new File(logFile));
+		log.start();
 
 		configs = new LinkedList<SimulationConfig>();
 
-		// Fetch a list of scalars that we care about, then quote them so they are usable inside a regex
-		wantedScalars = config.getStringArray("data.scalar");
-		for (int i = 0;i < wantedScalars.length;i++)
-			wantedScalars[i] = Pattern.quote(wantedScalars[i]);
+		// Fetch a list of scalars that we care about, along with any extra summary statistics wanted for each
+		summaries = new HashMap<String, SummarySpec>();
+		final String[] wantedScalars = getWantedScalars(config, summaries);
+
+		// The extractor is shared by all data processing
+		extractor = new ScalarExtractor(wantedScalars);
+
+		// Vectors are only read at all if some are wanted
+		final String[] wantedVectors = config.getStringArray("data.vector");
+		vectorExtractor = wantedVectors.length > 0 ? new VectorExtractor(wantedVectors) : null;
+
+		// Cached results are only any use while the same scalars and vectors are wanted
+		parseCache = config.getBoolean("data.parse-cache", true);
+		wantedHash = ParseCache.hashWanted(wantedScalars, wantedVectors);
 
 		// TODO: Load in any override parameters
 		globalParameters = new HashMap<String, String>();
@@ -74,7 +121,7 @@ public class Manager {
 		if (config.getBoolean("data.compress", false)) {
 			try {
 				DirectoryArchiver.ArchiveType type = DirectoryArchiver.ArchiveType.valueOf(config.getString("data.compression-type", "TAR_GZIP"));
-				archiver = new DirectoryArchiver(type);
+				archiver = new DirectoryArchiver(type, config.getInt("data.compression-threads", Runtime.getRuntime().availableProcessors()));
 			}
 			catch (IllegalArgumentException e) {
 				throw new ConfigurationException("Malformed configuration, data.compression-type must be one of: " + StringUtils.join(DirectoryArchiver.ArchiveType.values(), ", ") + ".");
@@ -83,35 +130,78 @@ public class Manager {
 
 		deleteData = config.getBoolean("data.delete", false);
 
+		// Where the results of each config are written once it completes
+		outputs = getOutputs(config);
+
+		incremental = config.getBoolean("data.incremental", true);
+		archiveIncrementally = archiver != null && config.getBoolean("data.compress-incrementally", false);
+		compressLogs = config.getBoolean("simulation.compress-logs", false);
+		journal = config.getBoolean("simulation.journal", true);
+
+		// Should we stop repeating parameters once their results are precise enough?
+		adaptiveScalars = Arrays.asList(config.getStringArray("simulation.adaptive-scalar"));
+		for (String scalar : adaptiveScalars) {
+			if (!extractor.isWanted(scalar))
+				throw new ConfigurationException("Malformed configuration, simulation.adaptive-scalar " + scalar + " must also be a data.scalar.");
+		}
+
+		adaptiveConfidence = config.getDouble("simulation.adaptive-confidence", 0.95);
+		adaptivePrecision = config.getDouble("simulation.adaptive-precision", 0.05);
+		adaptiveMinRepetitions = Math.max(2, config.getInt("simulation.adaptive-min-repetitions", 3));
+
+		// Should we hold back runs until there is enough memory for them?
+		if (config.getBoolean("simulation.memory-admission", false)) {
+			if (!ProcessMemory.isSupported())
+				throw new ConfigurationException("Malformed configuration, simulation.memory-admission requires /proc/meminfo.");
+
+			governor = new MemoryGovernor(this, config.getLong("simulation.memory-reserve", 256) * 1048576);
+		}
+		else {
+			governor = null;
+		}
+
 		finished = false;
 
 		resultRootDir = new File(workingDir, globalParameters.containsKey("result-dir") ? globalParameters.get("result-dir") : "results");
 		if (!resultRootDir.isDirectory())
 			throw new ConfigurationException("Invalid result directory: " + resultRootDir.getCanonicalPath());
 
+		// Should we remember run durations and start the longest runs first?
+		history = config.getBoolean("simulation.longest-first", false) ? new DurationHistory(new File(resultRootDir, ".durations")) : null;
+
+		// Should we shuffle runs after adding them?
+		scheduler = new RunScheduler(config.getBoolean("simulation.shuffle-runs", true), history);
+
+		// Runs restored from journals are counted off as configs are added, so hold the count open until started
+		scheduler.addPending(1);
+		holding = true;
+
         final String executableName = config.getString("simulation.executable-name", "OverSim");
 
-		// Find OverSim - attempt to use the RELEASE version by default
-		final File release = new File(workingDir, "../out/gcc-release/src/" + executableName);
-		final File debug = new File(workingDir, "../out/gcc-debug/src/" + executableName);
-		final File link = new File(workingDir, "../src/" + executableName);
-		if (release.exists()) {
-			this.println("Using OverSim in RELEASE mode.");
-			overSim = release;
-		}
-		else if (debug.exists()) {
-			this.println("Using OverSim in DEBUG mode.");
-			overSim = debug;
+		overSim = findOverSim(workingDir, executableName);
+		this.println("Using OverSim at: " + overSim.getPath());
+
+		runCounts = new RunCountCache(new File(resultRootDir, ".runcounts"), new File(workingDir, configFile), overSim);
+
+		// Should we expand configs into runs ourselves, rather than asking OverSim how many there are?
+		IniFile ini = null;
+		if (config.getBoolean("simulation.native-ini", true)) {
+			try {
+				ini = new IniFile(new File(workingDir, configFile));
+			}
+			catch (IOException e) {
+				this.println("Unable to read " + configFile + ", runs will be counted by OverSim: " + e.getMessage());
+			}
 		}
-		else if (link.exists())
-			overSim = link;
-		else
-			throw new FileNotFoundException("Unable to locate OverSim executable.");
+
+		this.ini = ini;
+
+		// Parsing results is short and I/O bound, so by default it gets a small pool next to the simulations
+		final int parseThreads = config.getInt("data.parse-threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 4));
+		pipeline = new DataPipeline(this, parseThreads);
 
 		threads = new ArrayList<SimulationThread>(maxThreads);
-		queue = Lists.newArrayList();
 
-		pendingRuns = 0;
 		paused = false;
 
 		// Create threads
@@ -120,7 +210,98 @@ public class Manager {
 			threads.add(thread);
 		}
 
-		this.println("Initialized " + threads.size() + " threads.");
+		this.println("Initialized " + threads.size() + " threads and " + pipeline.getThreadCount() + " data processing threads.");
+
+		// Everything published over JMX is only ever updated with atomic operations, never a lock
+		completedRuns = new AtomicInteger(0);
+		failedRuns = new AtomicInteger(0);
+		skippedRuns = new AtomicInteger(0);
+		runDurations = new DurationHistogram();
+		parseDurations = new DurationHistogram();
+
+		MBeans.register(this, "Manager", "Manager");
+		MBeans.register(runDurations, "Histogram", "RunDuration");
+		MBeans.register(parseDurations, "Histogram", "ParseDuration");
+
+		for (SimulationThread thread : threads)
+			MBeans.register(thread, "SimulationThread", thread.getName());
+
+		// Should we hand runs out to remote workers as well?
+		if (config.containsKey("remote.port")) {
+			try {
+				coordinator = new Coordinator(this, config.getInt("remote.port"));
+			}
+			catch (ConversionException e) {
+				throw new ConfigurationException("Malformed configuration, remote.port must be an integer!");
+			}
+		}
+		else {
+			coordinator = null;
+		}
+	}
+
+	/**
+	 * Returns the names of the wanted scalars from the data.scalar entries, putting any extra summary statistics
+	 * wanted for each into the given map.
+	 */
+	public static String[] getWantedScalars(Configuration config, Map<String, SummarySpec> summaries) {
+		final String[] scalarEntries = config.getStringArray("data.scalar");
+		final String[] wantedScalars = new String[scalarEntries.length];
+
+		for (int i = 0;i < scalarEntries.length;i++) {
+			final String entry = scalarEntries[i];
+			final int separator = entry.lastIndexOf('|');
+
+			if (separator >= 0 && SummarySpec.isSpec(entry.substring(separator + 1))) {
+				wantedScalars[i] = entry.substring(0, separator).trim();
+				summaries.put(wantedScalars[i], SummarySpec.parse(entry.substring(separator + 1)));
+			}
+			else {
+				wantedScalars[i] = entry;
+			}
+		}
+
+		return wantedScalars;
+	}
+
+	/**
+	 * Returns the outputs listed by the data.output entries, CSV if there are none.
+	 */
+	public static List<DataSink.Type> getOutputs(Configuration config) throws ConfigurationException {
+		final List<DataSink.Type> outputs = Lists.newArrayList();
+		for (String output : config.getStringArray("data.output")) {
+			try {
+				outputs.add(DataSink.Type.valueOf(output.trim().toUpperCase()));
+			}
+			catch (IllegalArgumentException e) {
+				throw new ConfigurationException("Malformed configuration, data.output must be one of: " + StringUtils.join(DataSink.Type.values(), ", ") + ".");
+			}
+		}
+
+		if (outputs.isEmpty())
+			outputs.add(DataSink.Type.CSV);
+
+		return outputs;
+	}
+
+	/**
+	 * Finds the OverSim executable relative to the given working directory, preferring the RELEASE version.
+	 */
+	public static File findOverSim(File workingDir, String executableName) throws FileNotFoundException {
+		final File release = new File(workingDir, "../out/gcc-release/src/" + executableName);
+		final File debug = new File(workingDir, "../out/gcc-debug/src/" + executableName);
+		final File link = new File(workingDir, "../src/" + executableName);
+
+		if (release.exists())
+			return release;
+
+		if (debug.exists())
+			return debug;
+
+		if (link.exists())
+			return link;
+
+		throw new FileNotFoundException("Unable to locate OverSim executable.");
 	}
 
 	public synchronized void setPaused(boolean paused) {
@@ -131,43 +312,163 @@ public class Manager {
 		return paused;
 	}
 
-	public synchronized void addRunConfig(String configName, String id) throws IOException {
-		final int totalRunCount = this.countRuns(configName); // Fetch the total run count
+	public void addRunConfig(String configName, String id) throws IOException {
+		final List<String> iterationVars = this.expandRuns(configName);
+		if (iterationVars != null)
+			this.addRunConfig(configName, id, iterationVars.size(), iterationVars);
+		else
+			this.addRunConfig(configName, id, this.countRuns(configName), null); // Fetch the total run count
+	}
+
+	/**
+	 * Adds several configs at once. Configs with a known run count are added straight away, while the rest are
+	 * counted in parallel in the background and added as each count arrives, so simulations of the first configs
+	 * can start while OverSim is still counting the others.
+	 */
+	public void addRunConfigs(List<String> configNames, final String id) throws IOException {
+		final List<String> uncounted = Lists.newArrayList();
+
+		for (String configName : configNames) {
+			final List<String> iterationVars = this.expandRuns(configName);
+			if (iterationVars != null) {
+				this.addRunConfig(configName, id, iterationVars.size(), iterationVars);
+				continue;
+			}
+
+			final Integer runs = runCounts.get(configName);
+			if (runs != null)
+				this.addRunConfig(configName, id, runs, null);
+			else
+				uncounted.add(configName);
+		}
+
+		if (uncounted.isEmpty())
+			return;
+
+		// Hold the manager open until the last config has been counted
+		scheduler.addPending(1);
+
+		final AtomicInteger remaining = new AtomicInteger(uncounted.size());
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(uncounted.size(), Runtime.getRuntime().availableProcessors()));
+
+		for (final String configName : uncounted) {
+			executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						addRunConfig(configName, id, countRuns(configName), null);
+					}
+					catch (Exception e) {
+						println("Unable to add configuration " + configName + ": " + e.getMessage());
+					}
+					finally {
+						if (remaining.decrementAndGet() == 0)
+							releasePending();
+					}
+				}
+			});
+		}
+
+		executor.shutdown();
+		this.println("Counting runs of " + uncounted.size() + " configurations in the background.");
+	}
+
+	protected synchronized void addRunConfig(String configName, String id, int totalRunCount, List<String> iterationVars) throws IOException {
 		if (totalRunCount == 0)
 			throw new RuntimeException("Invalid config name, 0 runs found.");
 
-		final SimulationConfig config = new SimulationConfig(configFile, configName, resultRootDir, id, globalParameters, totalRunCount);
-		pendingRuns += totalRunCount;
+		final SimulationConfig config = new SimulationConfig(configFile, configName, resultRootDir, id, summaries, globalParameters, totalRunCount);
+		this.addSinks(config);
+		if (parseCache)
+			config.openParseCache(wantedHash, vectorExtractor != null);
+		if (iterationVars != null) {
+			config.setExpectedIterationVars(iterationVars);
+
+			// Knowing which runs make up each set of parameters, sets can be written out as soon as they finish
+			if (incremental)
+				config.setPartialFile(new File(resultRootDir, config.getResultDir().getName() + ".partial.csv"));
+		}
+		else if (!adaptiveScalars.isEmpty())
+			this.println("Runs of " + configName + " can't be grouped before they run, so every repetition will be run.");
+		scheduler.addPending(totalRunCount);
+
+		// Find out where a previous attempt at this config got to, if there was one
+		final Map<Integer, RunJournal.Entry> replay = journal ? config.openJournal() : null;
+		int restored = 0;
 
 		// Create the queue of simulation runs
+		final List<Run> runs = Lists.newArrayListWithCapacity(totalRunCount);
 		for (int i = 0;i < totalRunCount;i++) {
-			final SimulationRun run = new SimulationRun(i, workingDir, overSim, config);
-            if (run.resultsExist()) {
+			final SimulationRun run = new SimulationRun(i, workingDir, overSim, config, compressLogs);
+
+			if (replay != null && !replay.isEmpty()) {
+				final RunJournal.Entry entry = replay.get(i);
+				final RunJournal.State state = entry == null ? null : entry.getState();
+
+				// Parsed runs are restored straight from the journal, completed ones only need parsing
+				if (state == RunJournal.State.PARSED) {
+					config.mergeData(entry.getUid(), entry.getScalars());
+					config.completedRuns.incrementAndGet();
+					this.finishRun(config, i);
+					this.checkForCompletion(config);
+					restored++;
+				}
+				else if (state == RunJournal.State.COMPLETED) {
+					this.completed(run);
+				}
+				else if (state == RunJournal.State.SKIPPED) {
+					this.skip(run);
+				}
+				else {
+					if (state == null)
+						config.getJournal().record(RunJournal.State.QUEUED, i);
+
+					runs.add(run);
+				}
+			}
+            else if (run.resultsExist()) {
                 this.completed(run);
             }
             // Only queue the run if the results don't already exist
             else {
-			    queue.add(run);
+				if (replay != null)
+					config.getJournal().record(RunJournal.State.QUEUED, i);
+
+			    runs.add(run);
             }
 		}
 
-		// Shuffle the queue to help prevent bunching of memory intensive configurations
-		if (shuffle) {
-			Collections.shuffle(queue);
-        }
+		// Anything restored may already be precise enough to not need running again
+		if (!adaptiveScalars.isEmpty()) {
+			for (Iterator<Run> it = runs.iterator();it.hasNext();) {
+				final SimulationRun run = (SimulationRun) it.next();
+				if (this.isPrecise(config, config.getExpectedIterationVars(run.getRunId()))) {
+					it.remove();
+					this.skip(run);
+				}
+			}
+		}
+
+		scheduler.addAll(runs);
 
 		this.println("Added configuration: " + config + " with " + totalRunCount + " runs");
 		this.println("Result dir: " + config.getResultDir().getCanonicalPath());
-		this.println("Pending: " + pendingRuns + " runs");
-		this.println("Queue size: " + queue.size());
 
-		configs.add(config);
+		if (restored > 0)
+			this.println("Restored: " + restored + " runs from the journal");
+
+		this.println("Pending: " + this.getPendingRuns() + " runs");
+		this.println("Queue size: " + scheduler.size());
 
-		this.notifyAll();
+		configs.add(config);
+		MBeans.register(config, "SimulationConfig", config.getResultDir().getName());
 	}
 
 	public synchronized void addDataConfig(String configName, String id) throws IOException {
-		final SimulationConfig config = new SimulationConfig(configFile, configName, resultRootDir, id);
+		final SimulationConfig config = new SimulationConfig(configFile, configName, resultRootDir, id, summaries);
+		this.addSinks(config);
+		if (parseCache)
+			config.openParseCache(wantedHash, vectorExtractor != null);
 
 		final FilenameFilter filter = new FilenameFilter() {
 			@Override
@@ -179,7 +480,8 @@ public class Manager {
 		final String[] files = config.getResultDir().list(filter);
 		final Pattern pattern = Pattern.compile("^" + Pattern.quote(configName) + "-(\\d+)\\.sca$");
 
-		// Create the queue of simulation data
+		// Create the simulation data to process
+		final List<SimulationData> runs = Lists.newArrayListWithCapacity(files.length);
 		for (String file : files) {
 			final Matcher m = pattern.matcher(file);
 			if (!m.matches()) {
@@ -187,29 +489,67 @@ public class Manager {
             }
 
 			final int i = Integer.parseInt(m.group(1));
-			final SimulationData data = new SimulationData(i, wantedScalars, config);
-
-			queue.add(data);
-			config.pendingRuns++;
+			runs.add(new SimulationData(i, extractor, vectorExtractor, config));
 		}
 
-		pendingRuns += config.pendingRuns;
+		config.pendingRuns.addAndGet(runs.size());
+		scheduler.addPending(runs.size());
 
-		// Shuffle the queue to help prevent bunching of memory intensive configurations
-		if (shuffle) {
-			Collections.shuffle(queue);
-        }
+		for (SimulationData data : runs) {
+			pipeline.submit(data);
+		}
 
-		this.println("Added result: " + config + " with " + config.completedRuns + " results.");
+		this.println("Added result: " + config + " with " + runs.size() + " results.");
 		this.println("Result dir: " + config.getResultDir().getCanonicalPath());
-		this.println("Queue size now: " + queue.size());
+		this.println("Pending: " + this.getPendingRuns() + " runs");
 
 		configs.add(config);
+		MBeans.register(config, "SimulationConfig", config.getResultDir().getName());
+	}
 
-		this.notifyAll();
+	/**
+	 * Attaches each wanted output to a config, before any of its runs are merged.
+	 */
+	protected void addSinks(SimulationConfig config) {
+		for (DataSink.Type type : outputs)
+			config.addSink(type.create(new File(resultRootDir, config.getResultDir().getName() + "." + type.getExtension())));
+	}
+
+	/**
+	 * Expands a config into the iterationvars of each of its runs without starting OverSim, or returns null if
+	 * the config can't be expanded natively and OverSim has to count the runs instead.
+	 */
+	protected List<String> expandRuns(String configName) {
+		if (ini == null)
+			return null;
+
+		try {
+			final List<String> iterationVars = SweepExpander.expand(ini, configName);
+
+			// Let OverSim have the final say on configs we can't find
+			if (iterationVars.isEmpty())
+				return null;
+
+			// If OverSim has counted this config before, it has the final say on that too
+			final Integer cached = runCounts.get(configName);
+			if (cached != null && cached != iterationVars.size()) {
+				this.println("Runs of " + configName + " will be counted by OverSim: expanded " + iterationVars.size() + " runs, but OverSim counted " + cached + ".");
+				return null;
+			}
+
+			return iterationVars;
+		}
+		catch (IOException e) {
+			this.println("Runs of " + configName + " will be counted by OverSim: " + e.getMessage());
+			return null;
+		}
 	}
 
 	protected int countRuns(String configName) throws IOException {
+		final Integer cached = runCounts.get(configName);
+		if (cached != null)
+			return cached;
+
 		final List<String> command = new LinkedList<String>();
 
 		command.add(overSim.getCanonicalPath());
@@ -238,6 +578,9 @@ public class Manager {
 				in.close();
 		}
 
+		if (runs > 0)
+			runCounts.put(configName, runs);
+
 		return runs;
 	}
 
@@ -245,16 +588,42 @@ public class Manager {
 		if (startTime > 0)
 			throw new RuntimeException("This manager has already been started.");
 
-		if (queue.isEmpty())
+		// Everything may have been restored from journals or skipped, in which case the results are already written
+		// and only the hold taken when the manager was created is left
+		if (this.getPendingRuns() == 0 && this.isComplete()) {
+			this.println("All runs were already completed, terminating.");
+			this.shutdown();
+			return;
+		}
+
+		if (this.getPendingRuns() == 0)
 			throw new RuntimeException("Queue is empty, nothing to do.");
 
 		startTime = System.currentTimeMillis();
 
+		// Release everything queued so far in one go
+		scheduler.start();
+
+		if (governor != null) {
+			governor.start();
+        }
+
 		// Start all our threads
 		for (SimulationThread thread : threads) {
 			thread.start();
         }
 
+		// Process any results which were already waiting
+		pipeline.start();
+
+		if (coordinator != null) {
+			coordinator.start();
+		}
+
+		// Everything is running, so the last run to finish can now finish the manager
+		holding = false;
+		this.releasePending();
+
 		while (!finished) {
 			this.wait();
         }
@@ -263,74 +632,238 @@ public class Manager {
 		this.shutdown();
 	}
 
-	public synchronized Run poll() throws InterruptedException {
-		while (queue.isEmpty()) {
-			this.wait();
-        }
+	/**
+	 * Returns whether configs have been added and every one of them has already finished.
+	 */
+	private boolean isComplete() {
+		if (configs.isEmpty())
+			return false;
+
+		for (SimulationConfig config : configs) {
+			if (config.getPendingRuns() > 0)
+				return false;
+		}
 
-		return queue.remove(0);
+		return true;
 	}
 
-	public synchronized void started(SimulationThread thread, Run runnable) {
-		this.println(thread + " starting " + runnable + ". (" + queue.size() + " left in global queue, " + pendingRuns + " globally pending runs, " + runnable.getConfig().pendingRuns + " pending runs)");
+	/**
+	 * Returns the memory governor admitting simulation runs, or null if runs are admitted unconditionally.
+	 */
+	public MemoryGovernor getGovernor() {
+		return governor;
 	}
 
-	public synchronized void completed(Run runnable) {
-		SimulationConfig config = null;
+	public String[] getWantedScalars() {
+		return extractor.getWantedScalars();
+	}
+
+	public String[] getWantedVectors() {
+		return vectorExtractor == null ? new String[0] : vectorExtractor.getWantedVectors();
+	}
+
+	public Run poll() throws InterruptedException {
+		return scheduler.poll();
+	}
+
+	/**
+	 * Puts a run which was taken but never completed, such as one given to a worker that died, back at the front
+	 * of the queue.
+	 */
+	public void requeue(Run runnable) {
+		this.println("Requeueing " + runnable);
+		scheduler.addFirst(runnable);
+	}
+
+	public void started(Thread thread, Run runnable) {
+		if (runnable instanceof SimulationRun)
+			this.journal(runnable.getConfig(), RunJournal.State.STARTED, ((SimulationRun) runnable).getRunId());
+
+		this.println(thread.getName() + " starting " + runnable + ". (" + scheduler.getQueueDepth() + " left in global queue, " + scheduler.getPendingRuns() + " globally pending runs, " + runnable.getConfig().pendingRuns.get() + " pending runs)");
+	}
+
+	public void completed(Run runnable) {
+		this.completed(runnable, -1);
+	}
+
+	public void completed(Run runnable, long duration) {
+		final SimulationConfig config = runnable.getConfig();
+
 		if (runnable instanceof SimulationRun) {
 			final SimulationRun run = (SimulationRun) runnable;
-			config = run.getConfig();
 
-			config.pendingRuns--;
-			pendingRuns--;
+			if (duration >= 0) {
+				completedRuns.incrementAndGet();
+				runDurations.record(duration);
 
-			config.completedRuns++;
+				if (history != null) {
+					history.recordDuration(run, duration);
+				}
+			}
 
-			// Queue a data processing instance for this run
-			queue.add(new SimulationData(run.getRunId(), wantedScalars, config));
-			this.notifyAll();
+			config.completedRuns.incrementAndGet();
+			this.journal(config, RunJournal.State.COMPLETED, run.getRunId());
 
-			config.pendingRuns++;
-			pendingRuns++;
+			// Process the data for this run, counting it before the run is removed so neither count touches 0 in between
+			config.pendingRuns.incrementAndGet();
+			scheduler.addPending(1);
+
+			pipeline.submit(new SimulationData(run.getRunId(), extractor, vectorExtractor, config));
 		}
 		else if (runnable instanceof SimulationData) {
-			config = runnable.getConfig();
+			final SimulationData data = (SimulationData) runnable;
+
+			parseDurations.record(duration);
+
+			final String expected = config.getExpectedIterationVars(data.getRunId());
+			if (expected != null && data.getUid() != null && !expected.equals(data.getUid())) {
+				// The expansion doesn't agree with OverSim, so stop relying on it
+				this.println("Warning: " + data + " has iterationvars " + data.getUid() + " but " + expected + " were expected, ignoring the expanded config.");
+				config.setExpectedIterationVars(null);
+			}
+
+			if (history != null && data.getUid() != null) {
+				history.recordIterationVars(config, data.getRunId(), data.getUid());
+			}
+
+			if (config.getJournal() != null && data.getUid() != null) {
+				config.getJournal().recordParsed(data.getRunId(), data.getUid(), data.getScalars());
+
+				// The raw files are about to go, so the journal has to be the only copy of the results
+				if (archiveIncrementally && deleteData) {
+					try {
+						config.getJournal().sync();
+					}
+					catch (IOException e) {
+						this.println("Failed to sync journal for " + data + ": " + e.getMessage());
+					}
+				}
+			}
 
-			config.pendingRuns--;
-			pendingRuns--;
+			this.checkPrecision(config, data.getUid());
+			this.finishRun(config, data.getRunId());
+
+			// Now the results are parsed the raw files can go into the archive
+			if (archiveIncrementally) {
+				try {
+					config.archiveRun(data.getRunId(), resultRootDir, archiver, deleteData);
+				}
+				catch (IOException e) {
+					this.println("Failed to archive " + data + ": " + e.getMessage());
+				}
+			}
 		}
 
-		if (config != null) {
-			checkForCompletion(config);
-        }
+		this.checkForCompletion(config);
 	}
 
-	public synchronized void failed(SimulationThread thread, Runnable runnable) {
-		this.println(thread + " failed " + runnable);
+	/**
+	 * Marks a run as completed by a remote worker, which has already parsed the results itself.
+	 */
+	public void completedRemotely(Thread thread, SimulationRun run, String uid, SortedMap<String, String> scalars, long duration) {
+		final SimulationConfig config = run.getConfig();
 
-		SimulationConfig config = null;
-		if (runnable instanceof SimulationRun) {
-			final SimulationRun run = (SimulationRun) runnable;
-			config = run.getConfig();
+		this.println(thread.getName() + " completed " + run + " in " + DurationFormatUtils.formatDurationWords(duration, true, true) + ".");
+
+		this.journal(config, RunJournal.State.COMPLETED, run.getRunId());
+
+		completedRuns.incrementAndGet();
+		runDurations.record(duration);
+
+		if (uid != null) {
+			config.mergeData(uid, scalars);
 
-			config.pendingRuns--;
-			pendingRuns--;
+			if (config.getJournal() != null)
+				config.getJournal().recordParsed(run.getRunId(), uid, scalars);
 
-			config.failedRuns++;
+			this.checkPrecision(config, uid);
+		}
+
+		this.finishRun(config, run.getRunId());
+
+		if (history != null) {
+			history.recordDuration(run, duration);
+
+			if (uid != null) {
+				history.recordIterationVars(config, run.getRunId(), uid);
+			}
 		}
-		else if (runnable instanceof SimulationData) {
-			config = ((SimulationData) runnable).getConfig();
 
-			config.pendingRuns--;
-			pendingRuns--;
+		config.completedRuns.incrementAndGet();
+
+		this.checkForCompletion(config);
+	}
+
+	public void failed(Thread thread, Run runnable) {
+		this.println(thread.getName() + " failed " + runnable);
+
+		final SimulationConfig config = runnable.getConfig();
+
+		if (runnable instanceof SimulationRun) {
+			config.failedRuns.incrementAndGet();
+			failedRuns.incrementAndGet();
+			this.journal(config, RunJournal.State.FAILED, ((SimulationRun) runnable).getRunId());
+			this.finishRun(config, ((SimulationRun) runnable).getRunId());
+		}
+
+		this.checkForCompletion(config);
+	}
+
+	private boolean isPrecise(SimulationConfig config, String uid) {
+		if (adaptiveScalars.isEmpty() || uid == null)
+			return false;
+
+		return config.isPrecise(uid, adaptiveScalars, adaptiveConfidence, adaptivePrecision, adaptiveMinRepetitions);
+	}
+
+	/**
+	 * Cancels the queued runs of a group once its target scalars are known precisely enough.
+	 */
+	private void checkPrecision(SimulationConfig config, String uid) {
+		if (!this.isPrecise(config, uid))
+			return;
+
+		final List<SimulationRun> cancelled = scheduler.cancel(config, uid);
+		if (cancelled.isEmpty())
+			return;
+
+		this.println("Reached target precision for " + uid + " of " + config + ", skipping " + cancelled.size() + " queued runs.");
+
+		for (SimulationRun run : cancelled)
+			this.skip(run);
+	}
+
+	private void skip(SimulationRun run) {
+		final SimulationConfig config = run.getConfig();
+
+		config.skippedRuns.incrementAndGet();
+		skippedRuns.incrementAndGet();
+		this.journal(config, RunJournal.State.SKIPPED, run.getRunId());
+		this.finishRun(config, run.getRunId());
+
+		this.checkForCompletion(config);
+	}
+
+	private void finishRun(SimulationConfig config, int runId) {
+		try {
+			config.finishRun(runId);
 		}
+		catch (IOException e) {
+			this.println("Failed to write partial results of " + config + ": " + e.getMessage());
+		}
+	}
 
-		if (config != null)
-			checkForCompletion(config);
+	private void journal(SimulationConfig config, RunJournal.State state, int runId) {
+		if (config.getJournal() != null)
+			config.getJournal().record(state, runId);
 	}
 
-	protected synchronized void checkForCompletion(SimulationConfig config) {
-		if (config.pendingRuns == 0) {
+	/**
+	 * Removes a finished run from the pending counts, processing the config and finishing once nothing is left.
+	 */
+	protected void checkForCompletion(SimulationConfig config) {
+		// Only the thread taking the count to 0 sees 0, so each config is processed exactly once
+		if (config.pendingRuns.decrementAndGet() == 0) {
 			try {
 				config.processData(this, resultRootDir, archiver, deleteData);
 			}
@@ -340,27 +873,119 @@ public class Manager {
 			}
 		}
 
-		if (pendingRuns == 0) {
-			finished = true;
-			this.notifyAll();
+		this.releasePending();
+	}
+
+	/**
+	 * Removes one run from the global pending count, finishing once nothing is left.
+	 */
+	protected void releasePending() {
+		if (scheduler.removePending() == 0) {
+			synchronized (this) {
+				finished = true;
+				this.notifyAll();
+			}
 		}
 	}
 
-	public String getBuffer() {
-		return buffer.toString().trim();
+	@Override
+	public int getQueueDepth() {
+		return scheduler.getQueueDepth();
+	}
+
+	/**
+	 * Returns the number of runs still to finish, not counting the hold taken until the manager is started.
+	 */
+	@Override
+	public int getPendingRuns() {
+		return scheduler.getPendingRuns() - (holding ? 1 : 0);
+	}
+
+	/**
+	 * Returns the number of runs completed since starting, not counting any restored from earlier results.
+	 */
+	@Override
+	public int getCompletedRuns() {
+		return completedRuns.get();
+	}
+
+	@Override
+	public int getFailedRuns() {
+		return failedRuns.get();
 	}
 
-	public synchronized final void println(Object o) {
-		final String line = o.toString();
+	@Override
+	public int getSkippedRuns() {
+		return skippedRuns.get();
+	}
+
+	@Override
+	public int getThreadCount() {
+		return threads.size();
+	}
 
-		System.out.println(line);
+	@Override
+	public int getBusyThreads() {
+		int busy = 0;
+		for (SimulationThread thread : threads) {
+			if (thread.isBusy())
+				busy++;
+		}
+
+		return busy;
+	}
+
+	@Override
+	public int getDataQueueDepth() {
+		return pipeline.getQueueDepth();
+	}
+
+	@Override
+	public double getRunsPerHour() {
+		final long elapsed = System.currentTimeMillis() - startTime;
+		if (startTime == 0 || elapsed <= 0)
+			return 0;
+
+		return completedRuns.get() * 3600000.0 / elapsed;
+	}
+
+	/**
+	 * Returns the expected time until the queued and running simulations are done at the current rate, or -1
+	 * until the first run has completed.
+	 */
+	@Override
+	public long getEstimatedSecondsRemaining() {
+		final double runsPerHour = this.getRunsPerHour();
+		if (runsPerHour <= 0)
+			return -1;
+
+		final int remaining = scheduler.getQueueDepth() + this.getBusyThreads();
+		return (long) (remaining * 3600 / runsPerHour);
+	}
+
+	@Override
+	public String getEstimatedTimeRemaining() {
+		final long seconds = this.getEstimatedSecondsRemaining();
+		if (seconds < 0)
+			return "unknown";
+
+		return DurationFormatUtils.formatDurationWords(seconds * 1000, true, true);
+	}
+
+	/**
+	 * Returns the most recently printed lines, up to simulation.log-buffer of them.
+	 */
+	public String getBuffer() {
+		return log.getBuffer();
+	}
 
-		buffer.append(line);
-		buffer.append('\n');
+	public final void println(Object o) {
+		log.log(String.valueOf(o));
 	}
 
 	public synchronized void shutdown() {
 		this.println("Shutdown requested.");
+		log.close();
 
 		System.exit(0);
 	}
@@ -0,0 +1,19 @@
+package com.jamierf.oversim.manager;
+
+/**
+ * The overall progress of the manager published over JMX.
+ */
+public interface ManagerMBean {
+
+	public int getQueueDepth();
+	public int getPendingRuns();
+	public int getCompletedRuns();
+	public int getFailedRuns();
+	public int getSkippedRuns();
+	public int getThreadCount();
+	public int getBusyThreads();
+	public int getDataQueueDepth();
+	public double getRunsPerHour();
+	public long getEstimatedSecondsRemaining();
+	public String getEstimatedTimeRemaining();
+}
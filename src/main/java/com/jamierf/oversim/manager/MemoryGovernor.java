@@ -0,0 +1,166 @@
+package com.jamierf.oversim.manager;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.jamierf.oversim.manager.runnable.SimulationRun;
+import com.jamierf.oversim.manager.util.ProcessMemory;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Only admits a simulation run once the memory it is expected to need is available.
+ *
+ * The resident memory of each running OverSim process is sampled from /proc, and the peak seen for each config
+ * is used as the expected requirement of its later runs. A run is admitted if its expected peak fits within the
+ * available memory, less a reserve and less the growth still expected from runs which are already going.
+ *
+ * Until a run of a config has been measured its needs are unknown, so the largest peak seen of any config is used
+ * instead. If nothing has been measured yet at all, only one run of each config is admitted at a time.
+ */
+public class MemoryGovernor extends Thread {
+
+	private static final long SAMPLE_INTERVAL = 1000;
+
+	protected final Manager manager;
+	protected final long reserve;
+	protected final Map<SimulationRun, Long> running;
+	protected final Set<SimulationConfig> unmeasured;
+	protected long largestPeak;
+
+	public MemoryGovernor(Manager manager, long reserve) {
+		this.manager = manager;
+		this.reserve = reserve;
+
+		running = Maps.newHashMap();
+		unmeasured = Sets.newHashSet();
+		largestPeak = 0;
+
+		super.setDaemon(true);
+		super.setName("MemoryGovernor");
+	}
+
+	/**
+	 * Blocks until the given run fits in memory.
+	 */
+	public synchronized void acquire(SimulationRun run) throws InterruptedException {
+		boolean waiting = false;
+
+		// Always admit something when nothing else is running, otherwise we would wait forever
+		while (!running.isEmpty() && !this.fits(run)) {
+			if (!waiting) {
+				final long expected = this.getExpectedPeak(run.getConfig());
+				if (expected > 0)
+					manager.println(this + " holding " + run + " until " + (expected / 1048576) + "MB is available.");
+				else
+					manager.println(this + " holding " + run + " until a run of " + run.getConfig().getName() + " has been measured.");
+
+				waiting = true;
+			}
+
+			this.wait(SAMPLE_INTERVAL);
+		}
+
+		running.put(run, 0L);
+	}
+
+	public synchronized void release(SimulationRun run) {
+		final Long usage = running.remove(run);
+
+		// A run which finished without ever being measured won't tell us any more by holding back the rest
+		if (usage != null && usage == 0 && run.getConfig().getPeakMemory() == 0)
+			unmeasured.add(run.getConfig());
+
+		this.notifyAll();
+	}
+
+	private boolean fits(SimulationRun run) {
+		final long available = ProcessMemory.getAvailableMemory();
+		if (available < 0)
+			return true;
+
+		final SimulationConfig config = run.getConfig();
+
+		// With nothing to go on, another run of the same config is held until the first has been measured
+		if (this.getExpectedPeak(config) == 0 && !unmeasured.contains(config) && this.isRunning(config))
+			return false;
+
+		// Runs which are yet to reach the peak of their config will still grow into some of the available memory
+		long growth = 0;
+		for (Map.Entry<SimulationRun, Long> entry : running.entrySet())
+			growth += Math.max(0, this.getExpectedPeak(entry.getKey().getConfig()) - entry.getValue());
+
+		return this.getExpectedPeak(config) <= available - reserve - growth;
+	}
+
+	/**
+	 * Returns the peak memory expected of a run of the given config, the largest peak of any config if none of its
+	 * runs have been measured yet, or 0 if nothing has been.
+	 */
+	private long getExpectedPeak(SimulationConfig config) {
+		final long peak = config.getPeakMemory();
+		return peak > 0 ? peak : largestPeak;
+	}
+
+	private boolean isRunning(SimulationConfig config) {
+		for (SimulationRun run : running.keySet()) {
+			if (run.getConfig() == config)
+				return true;
+		}
+
+		return false;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				Thread.sleep(SAMPLE_INTERVAL);
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+
+			this.sample();
+		}
+	}
+
+	private void sample() {
+		final Map<Integer, SimulationRun> pids = Maps.newHashMap();
+
+		synchronized (this) {
+			for (SimulationRun run : running.keySet()) {
+				final int pid = run.getPid();
+				if (pid > 0)
+					pids.put(pid, run);
+			}
+		}
+
+		if (pids.isEmpty())
+			return;
+
+		// Read /proc without holding the lock, acquire only needs the latest figures
+		final Map<Integer, Long> usage = ProcessMemory.getResidentMemory(pids.keySet());
+
+		synchronized (this) {
+			for (Map.Entry<Integer, Long> entry : usage.entrySet()) {
+				final SimulationRun run = pids.get(entry.getKey());
+				if (!running.containsKey(run))
+					continue;
+
+				running.put(run, entry.getValue());
+				run.getConfig().recordMemory(entry.getValue());
+
+				largestPeak = Math.max(largestPeak, run.getConfig().getPeakMemory());
+			}
+
+			// Give any waiting runs another chance with the new figures
+			this.notifyAll();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MemoryGovernor(reserve = " + (reserve / 1048576) + "MB;)";
+	}
+}
@@ -0,0 +1,383 @@
+package com.jamierf.oversim.manager;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Remembers what was extracted from each scalar file of a result directory, so unchanged results can be parsed
+ * again without reading them.
+ *
+ * An entry is only used while the size and modification time of its file are unchanged, and the same scalars and
+ * vectors are wanted. When vectors are wanted the same goes for the vector file and its index next to it, as their
+ * aggregates are cached along with the scalars. Entries are appended as files are parsed, anything out of date is
+ * dropped by rewriting the cache when it is opened. The file is a magic number and version followed by length
+ * prefixed records:
+ * <pre>
+ * N  name id (int), name (UTF)
+ * R  file (UTF), size (long), modified (long), .vec size (long), .vec modified (long), .vci size (long),
+ *    .vci modified (long), wanted hash (long), iterationvars (UTF), count (int), then a name id (int) and value
+ *    (UTF) for each scalar
+ * </pre>
+ * The vector files are recorded with a size and modification time of -1 if they are missing or vectors aren't
+ * wanted.
+ * Scalar names are written once each and referred to by id, keeping each run down to little more than its values.
+ */
+public class ParseCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(ParseCache.class);
+
+	public static final int MAGIC = 0x4F535043;
+	public static final int VERSION = 2;
+
+	private static final byte NAME = 'N';
+	private static final byte RUN = 'R';
+
+	// The size and modification time of the scalar file, vector file and vector index
+	private static final int STAMP_LENGTH = 6;
+
+	/**
+	 * Hashes the wanted scalars and vectors, in any order, so entries extracted for other ones are never used.
+	 */
+	public static long hashWanted(String[] wantedScalars, String[] wantedVectors) {
+		final String[] scalars = wantedScalars.clone();
+		final String[] vectors = wantedVectors.clone();
+
+		Arrays.sort(scalars);
+		Arrays.sort(vectors);
+
+		final Hasher hasher = Hashing.sha1().newHasher();
+		for (String scalar : scalars)
+			hasher.putString(scalar, Charsets.UTF_8).putByte((byte) 0);
+
+		hasher.putByte((byte) 1);
+		for (String vector : vectors)
+			hasher.putString(vector, Charsets.UTF_8).putByte((byte) 0);
+
+		return hasher.hash().asLong();
+	}
+
+	protected final File file;
+	protected final long wantedHash;
+	protected final boolean vectors;
+	protected final Map<String, Integer> nameIds;
+	protected final List<String> names;
+	protected final Map<String, Location> index;
+	protected RandomAccessFile store;
+	protected int staleRecords;
+	protected int hits;
+	protected int misses;
+
+	public ParseCache(File file, long wantedHash, boolean vectors) throws IOException {
+		this.file = file;
+		this.wantedHash = wantedHash;
+		this.vectors = vectors;
+
+		nameIds = Maps.newHashMap();
+		names = Lists.newArrayList();
+		index = Maps.newHashMap();
+		staleRecords = 0;
+		hits = 0;
+		misses = 0;
+
+		final long length = file.exists() ? this.load() : 0;
+		final boolean stale = length < file.length() || staleRecords > 0;
+
+		if (length == 0 || stale)
+			this.rewrite();
+		else
+			store = new RandomAccessFile(file, "rw");
+	}
+
+	/**
+	 * Indexes every usable record, returning the length of the file up to the end of the last complete record.
+	 */
+	private long load() throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		long position = 0;
+
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return 0;
+
+			position = 8;
+
+			while (true) {
+				final byte type = in.readByte();
+				final int length = in.readInt();
+				if (length < 0)
+					throw new IOException("Corrupt parse cache record length: " + length);
+
+				final byte[] record = new byte[length];
+				in.readFully(record);
+
+				final DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record));
+
+				if (type == NAME) {
+					final int id = fields.readInt();
+					final String name = fields.readUTF();
+
+					if (id != names.size())
+						throw new IOException("Parse cache names out of order: " + file);
+
+					nameIds.put(name, id);
+					names.add(name);
+				}
+				else if (type == RUN) {
+					final String name = fields.readUTF();
+					final long[] stamp = new long[STAMP_LENGTH];
+					for (int i = 0;i < stamp.length;i++)
+						stamp[i] = fields.readLong();
+
+					// Anything extracted for other wanted scalars, or replaced since, is dropped next time it's rewritten
+					if (fields.readLong() == wantedHash) {
+						if (index.put(name, new Location(stamp, position, length)) != null)
+							staleRecords++;
+					}
+					else {
+						staleRecords++;
+					}
+				}
+				else {
+					throw new IOException("Unrecognised parse cache record: " + type);
+				}
+
+				position += 5 + length;
+			}
+		}
+		catch (EOFException e) {
+			// Either the end of the file or a partially written record, which is dropped
+			return position;
+		}
+		catch (IOException e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Discarding unreadable parse cache " + file, e);
+
+			nameIds.clear();
+			names.clear();
+			index.clear();
+
+			return 0;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes out a fresh cache holding only the usable records.
+	 */
+	private void rewrite() throws IOException {
+		final File temp = new File(file.getPath() + ".tmp");
+		final RandomAccessFile fresh = new RandomAccessFile(temp, "rw");
+		final RandomAccessFile old = index.isEmpty() ? null : new RandomAccessFile(file, "r");
+
+		try {
+			fresh.setLength(0);
+			fresh.writeInt(MAGIC);
+			fresh.writeInt(VERSION);
+
+			for (int id = 0;id < names.size();id++)
+				fresh.write(nameRecord(id, names.get(id)));
+
+			for (Location location : index.values()) {
+				final byte[] record = new byte[location.length];
+				old.seek(location.offset + 5);
+				old.readFully(record);
+
+				location.offset = fresh.getFilePointer();
+				fresh.writeByte(RUN);
+				fresh.writeInt(record.length);
+				fresh.write(record);
+			}
+		}
+		finally {
+			fresh.close();
+
+			if (old != null)
+				old.close();
+		}
+
+		if (!temp.renameTo(file))
+			throw new IOException("Unable to replace parse cache: " + file);
+
+		staleRecords = 0;
+		store = new RandomAccessFile(file, "rw");
+	}
+
+	/**
+	 * Fills in the scalars of a scalar file and returns its iterationvars, or returns null if it isn't cached.
+	 */
+	public synchronized String get(File sca, SortedMap<String, String> scalars) throws IOException {
+		final Location location = index.get(sca.getName());
+		if (location == null || !Arrays.equals(location.stamp, this.stamp(sca))) {
+			misses++;
+			return null;
+		}
+
+		final byte[] record = new byte[location.length];
+		store.seek(location.offset + 5);
+		store.readFully(record);
+
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+
+		// Skip the key, we already know it matches
+		in.readUTF();
+		for (int i = 0;i <= STAMP_LENGTH;i++)
+			in.readLong();
+
+		final String uid = in.readUTF();
+		final SortedMap<String, String> cached = new TreeMap<String, String>();
+		for (int count = in.readInt();count > 0;count--) {
+			final String name = names.get(in.readInt());
+			cached.put(name, in.readUTF());
+		}
+
+		scalars.putAll(cached);
+		hits++;
+		return uid;
+	}
+
+	/**
+	 * Records what was extracted from a scalar file.
+	 */
+	public synchronized void put(File sca, String uid, SortedMap<String, String> scalars) throws IOException {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final DataOutputStream record = new DataOutputStream(buffer);
+
+		store.seek(store.length());
+
+		// Any new names have to be written before the run using them
+		for (String name : scalars.keySet()) {
+			if (nameIds.containsKey(name))
+				continue;
+
+			final int id = names.size();
+			nameIds.put(name, id);
+			names.add(name);
+
+			store.write(nameRecord(id, name));
+		}
+
+		final long[] stamp = this.stamp(sca);
+
+		record.writeUTF(sca.getName());
+		for (long field : stamp)
+			record.writeLong(field);
+
+		record.writeLong(wantedHash);
+		record.writeUTF(uid);
+		record.writeInt(scalars.size());
+
+		for (Map.Entry<String, String> scalar : scalars.entrySet()) {
+			record.writeInt(nameIds.get(scalar.getKey()));
+			record.writeUTF(scalar.getValue());
+		}
+
+		record.flush();
+
+		final long offset = store.getFilePointer();
+		store.writeByte(RUN);
+		store.writeInt(buffer.size());
+		store.write(buffer.toByteArray());
+
+		index.put(sca.getName(), new Location(stamp, offset, buffer.size()));
+	}
+
+	/**
+	 * Returns the sizes and modification times of a scalar file and, if vectors are wanted, the vector files with it.
+	 */
+	private long[] stamp(File sca) {
+		final long[] stamp = { sca.length(), sca.lastModified(), -1, -1, -1, -1 };
+
+		if (vectors) {
+			final String base = sca.getPath().substring(0, sca.getPath().length() - ".sca".length());
+			final File vec = new File(base + ".vec");
+			final File vci = new File(base + ".vci");
+
+			if (vec.exists()) {
+				stamp[2] = vec.length();
+				stamp[3] = vec.lastModified();
+			}
+
+			if (vci.exists()) {
+				stamp[4] = vci.length();
+				stamp[5] = vci.lastModified();
+			}
+		}
+
+		return stamp;
+	}
+
+	private static byte[] nameRecord(int id, String name) throws IOException {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final DataOutputStream record = new DataOutputStream(buffer);
+
+		record.writeInt(id);
+		record.writeUTF(name);
+		record.flush();
+
+		final ByteArrayOutputStream framed = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(framed);
+
+		out.writeByte(NAME);
+		out.writeInt(buffer.size());
+		buffer.writeTo(out);
+		out.flush();
+
+		return framed.toByteArray();
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	public synchronized void close() throws IOException {
+		if (store != null) {
+			store.close();
+			store = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ParseCache(file = '" + file + "'; entries = " + index.size() + ";)";
+	}
+
+	private static class Location {
+
+		protected final long[] stamp;
+		protected long offset;
+		protected final int length;
+
+		public Location(long[] stamp, long offset, int length) {
+			this.stamp = stamp;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.jamierf.oversim.manager;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers how many runs each config has, so OverSim doesn't have to be started just to count them again.
+ *
+ * A count is only reused while the config file, every file it includes and the OverSim executable are unchanged.
+ * The cache file holds a tab separated line for each count:
+ * <pre>
+ * key  runs
+ * </pre>
+ * where the key is a hash of the config files, the config name and the modification time of the executable.
+ */
+public class RunCountCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(RunCountCache.class);
+
+	protected final File file;
+	protected final String filesHash;
+	protected final Map<String, Integer> counts;
+
+	public RunCountCache(File file, File configFile, File overSim) throws IOException {
+		this.file = file;
+
+		final Hasher hasher = Hashing.sha1().newHasher();
+		hashConfig(hasher, configFile.getCanonicalFile(), Sets.<File>newHashSet());
+		hasher.putString(overSim.getCanonicalPath(), Charsets.UTF_8);
+		hasher.putLong(overSim.lastModified());
+		filesHash = hasher.hash().toString();
+
+		counts = Maps.newHashMap();
+		if (file.exists())
+			this.load();
+	}
+
+	/**
+	 * Hashes a config file followed by every file it includes, in the order they are included.
+	 */
+	private static void hashConfig(Hasher hasher, File configFile, Set<File> visited) throws IOException {
+		if (!visited.add(configFile) || !configFile.isFile())
+			return;
+
+		hasher.putString(configFile.getPath(), Charsets.UTF_8);
+		hasher.putBytes(Files.toByteArray(configFile));
+
+		for (String line : Files.readLines(configFile, Charsets.UTF_8)) {
+			line = line.trim();
+			if (line.startsWith("include "))
+				hashConfig(hasher, new File(configFile.getParentFile(), line.substring(8).trim()).getCanonicalFile(), visited);
+		}
+	}
+
+	private void load() throws IOException {
+		BufferedReader in = null;
+
+		try {
+			in = new BufferedReader(new FileReader(file));
+
+			for (String line;(line = in.readLine()) != null;) {
+				final String[] fields = line.split("\t");
+				if (fields.length != 2)
+					continue;
+
+				try {
+					counts.put(fields[0], Integer.parseInt(fields[1]));
+				}
+				catch (NumberFormatException e) {
+					// Probably a partially written line
+				}
+			}
+		}
+		finally {
+			if (in != null)
+				in.close();
+		}
+
+		if (logger.isDebugEnabled())
+			logger.debug("Loaded " + counts.size() + " run counts from " + file);
+	}
+
+	private String key(String configName) {
+		return Hashing.sha1().newHasher().putString(filesHash, Charsets.UTF_8).putString(configName, Charsets.UTF_8).hash().toString();
+	}
+
+	/**
+	 * Returns the number of runs in a config, or null if it hasn't been counted with the current files.
+	 */
+	public synchronized Integer get(String configName) {
+		return counts.get(this.key(configName));
+	}
+
+	public synchronized void put(String configName, int runs) {
+		final String key = this.key(configName);
+		if (Integer.valueOf(runs).equals(counts.put(key, runs)))
+			return;
+
+		PrintWriter out = null;
+
+		try {
+			out = new PrintWriter(new BufferedWriter(new FileWriter(file, true)));
+			out.println(key + "\t" + runs);
+		}
+		catch (IOException e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Error saving run count to " + file, e);
+		}
+		finally {
+			if (out != null)
+				out.close();
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package com.jamierf.oversim.manager;
+
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only record of what has happened to each run of a config, kept in its result directory so an
+ * interrupted config can be resumed from exactly where it stopped, without looking at any of the raw results.
+ *
+ * Each line is a tab separated record ending with the CRC32 of the rest of the line, so a line torn by a crash
+ * is ignored rather than misread:
+ * <pre>
+ * Q  run id                                   queued
+ * S  run id                                   started
+ * C  run id                                   completed, but not yet parsed
+ * F  run id                                   failed
+ * K  run id                                   skipped, as its parameters were already known precisely enough
+ * P  run id  iterationvars  (name  value)*    parsed, along with the extracted scalars
+ * </pre>
+ * Only the last record of each run counts. Records are written straight away but only forced to disk in
+ * batches, so at worst the last moments before a crash are lost and those runs are repeated.
+ */
+public class RunJournal implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(RunJournal.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long SYNC_INTERVAL = 1000;
+
+	public static enum State {
+		QUEUED('Q'),
+		STARTED('S'),
+		COMPLETED('C'),
+		FAILED('F'),
+		SKIPPED('K'),
+		PARSED('P');
+
+		private final char code;
+
+		private State(char code) {
+			this.code = code;
+		}
+
+		private static State fromCode(String code) {
+			for (State state : State.values()) {
+				if (code.length() == 1 && code.charAt(0) == state.code)
+					return state;
+			}
+
+			return null;
+		}
+	};
+
+	public static class Entry {
+
+		private final State state;
+		private final String uid;
+		private final SortedMap<String, String> scalars;
+
+		private Entry(State state, String uid, SortedMap<String, String> scalars) {
+			this.state = state;
+			this.uid = uid;
+			this.scalars = scalars;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		/**
+		 * Returns the iterationvars of a parsed run, or null for any other state.
+		 */
+		public String getUid() {
+			return uid;
+		}
+
+		/**
+		 * Returns the scalars of a parsed run, or null for any other state.
+		 */
+		public SortedMap<String, String> getScalars() {
+			return scalars;
+		}
+	}
+
+	protected final File file;
+	protected final Map<Integer, Entry> entries;
+	protected final FileOutputStream stream;
+	protected final Writer out;
+	protected final Syncer syncer;
+	protected boolean dirty;
+
+	public RunJournal(File file) throws IOException {
+		this.file = file;
+
+		entries = Maps.newHashMap();
+		if (file.exists())
+			this.load();
+
+		stream = new FileOutputStream(file, true);
+		out = new BufferedWriter(new OutputStreamWriter(stream, UTF8));
+		dirty = false;
+
+		syncer = new Syncer();
+		syncer.start();
+	}
+
+	private void load() throws IOException {
+		BufferedReader in = null;
+		int skipped = 0;
+
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+
+			for (String line;(line = in.readLine()) != null;) {
+				final int checksum = line.lastIndexOf('\t');
+				if (checksum < 0 || !line.substring(checksum + 1).equals(checksum(line.substring(0, checksum)))) {
+					skipped++;
+					continue;
+				}
+
+				final String[] fields = line.substring(0, checksum).split("\t", -1);
+				final State state = State.fromCode(fields[0]);
+				if (state == null || fields.length < 2) {
+					skipped++;
+					continue;
+				}
+
+				final int runId = Integer.parseInt(fields[1]);
+
+				if (state == State.PARSED) {
+					final SortedMap<String, String> scalars = new TreeMap<String, String>();
+					for (int i = 3;i + 1 < fields.length;i += 2)
+						scalars.put(unescape(fields[i]), unescape(fields[i + 1]));
+
+					entries.put(runId, new Entry(state, unescape(fields[2]), scalars));
+				}
+				else {
+					entries.put(runId, new Entry(state, null, null));
+				}
+			}
+		}
+		finally {
+			if (in != null)
+				in.close();
+		}
+
+		if (logger.isInfoEnabled())
+			logger.info("Loaded " + entries.size() + " runs from " + file + (skipped > 0 ? ", skipping " + skipped + " damaged records" : ""));
+	}
+
+	/**
+	 * Returns the last recorded entry of every run in the journal when it was opened, keyed by run id.
+	 */
+	public Map<Integer, Entry> getEntries() {
+		return entries;
+	}
+
+	public void record(State state, int runId) {
+		this.append(state.code + "\t" + runId);
+	}
+
+	public void recordParsed(int runId, String uid, Map<String, String> scalars) {
+		final StringBuilder line = new StringBuilder();
+		line.append(State.PARSED.code).append('\t').append(runId).append('\t').append(escape(uid));
+
+		for (Map.Entry<String, String> entry : scalars.entrySet())
+			line.append('\t').append(escape(entry.getKey())).append('\t').append(escape(entry.getValue()));
+
+		this.append(line.toString());
+	}
+
+	private synchronized void append(String record) {
+		try {
+			out.write(record);
+			out.write('\t');
+			out.write(checksum(record));
+			out.write('\n');
+
+			dirty = true;
+		}
+		catch (IOException e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Error writing to run journal " + file, e);
+		}
+	}
+
+	/**
+	 * Forces everything recorded so far to disk.
+	 */
+	public synchronized void sync() throws IOException {
+		if (!dirty)
+			return;
+
+		out.flush();
+		stream.getFD().sync();
+
+		dirty = false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		syncer.interrupt();
+
+		synchronized (this) {
+			this.sync();
+			out.close();
+		}
+	}
+
+	private static String checksum(String record) {
+		final CRC32 crc = new CRC32();
+		crc.update(record.getBytes(UTF8));
+
+		return Long.toHexString(crc.getValue());
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') < 0)
+			return value;
+
+		final StringBuilder result = new StringBuilder(value.length());
+
+		for (int i = 0;i < value.length();i++) {
+			char c = value.charAt(i);
+
+			if (c == '\\' && i + 1 < value.length()) {
+				c = value.charAt(++i);
+
+				if (c == 't')
+					c = '\t';
+				else if (c == 'n')
+					c = '\n';
+				else if (c == 'r')
+					c = '\r';
+			}
+
+			result.append(c);
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * Forces the journal to disk once a second at most, rather than after every record.
+	 */
+	private class Syncer extends Thread {
+
+		private Syncer() {
+			super.setDaemon(true);
+			super.setName("RunJournal(" + file.getParentFile().getName() + ")");
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!super.isInterrupted()) {
+					Thread.sleep(SYNC_INTERVAL);
+					RunJournal.this.sync();
+				}
+			}
+			catch (InterruptedException e) {
+				// Closed, the final sync is done by close
+			}
+			catch (IOException e) {
+				if (logger.isWarnEnabled())
+					logger.warn("Error syncing run journal " + file, e);
+			}
+		}
+	}
+}
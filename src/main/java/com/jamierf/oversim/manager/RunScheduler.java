@@ -0,0 +1,212 @@
+package com.jamierf.oversim.manager;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Ordering;
+import com.jamierf.oversim.manager.runnable.Run;
+import com.jamierf.oversim.manager.runnable.SimulationRun;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out queued runs to the simulation threads.
+ *
+ * Runs added before the scheduler is started are held back so the ordering policy can be applied once across
+ * every config, rather than reordering the whole queue each time a config is added. Runs added after starting
+ * are ordered as a batch and appended.
+ */
+public class RunScheduler {
+
+	protected final boolean shuffle;
+	protected final DurationHistory history;
+	protected final BlockingDeque<Run> queue;
+	protected final List<Run> staged;
+	protected final AtomicInteger pendingRuns;
+	protected boolean started;
+
+	public RunScheduler(boolean shuffle) {
+		this (shuffle, null);
+	}
+
+	/**
+	 * Creates a scheduler which, given a duration history, starts the runs expected to take longest first.
+	 */
+	public RunScheduler(boolean shuffle, DurationHistory history) {
+		this.shuffle = shuffle;
+		this.history = history;
+
+		queue = new LinkedBlockingDeque<Run>();
+		staged = Lists.newArrayList();
+		pendingRuns = new AtomicInteger(0);
+		started = false;
+	}
+
+	public synchronized void addAll(Collection<? extends Run> runs) {
+		if (!started) {
+			staged.addAll(runs);
+			return;
+		}
+
+		final List<Run> batch = Lists.newArrayList(runs);
+		this.order(batch);
+
+		queue.addAll(batch);
+	}
+
+	public synchronized void start() {
+		if (started)
+			return;
+
+		started = true;
+
+		this.order(staged);
+		queue.addAll(staged);
+
+		staged.clear();
+	}
+
+	protected void order(List<Run> runs) {
+		// Shuffle the runs to help prevent bunching of memory intensive configurations
+		if (shuffle) {
+			Collections.shuffle(runs);
+		}
+
+		if (history != null) {
+			this.orderLongestFirst(runs);
+		}
+	}
+
+	/**
+	 * Sorts runs by their expected duration, longest first, so the last runs to start are the quickest and the
+	 * cores finish together. Runs without any history are estimated at the median of their config, or of the
+	 * whole batch. The sort is stable so runs with equal estimates keep their shuffled order.
+	 */
+	private void orderLongestFirst(List<Run> runs) {
+		final Map<Run, Long> estimates = Maps.newHashMap();
+		final Multimap<SimulationConfig, Long> known = ArrayListMultimap.create();
+
+		for (Run run : runs) {
+			if (!(run instanceof SimulationRun))
+				continue;
+
+			final long estimate = history.estimate((SimulationRun) run);
+			if (estimate >= 0) {
+				estimates.put(run, estimate);
+				known.put(run.getConfig(), estimate);
+			}
+		}
+
+		// Nothing to go on, leave the runs as they are
+		if (known.isEmpty())
+			return;
+
+		final long batchMedian = median(known.values());
+		for (Run run : runs) {
+			if (estimates.containsKey(run))
+				continue;
+
+			// Data processing is quick, so leave it until last
+			if (!(run instanceof SimulationRun)) {
+				estimates.put(run, 0L);
+				continue;
+			}
+
+			final Collection<Long> config = known.get(run.getConfig());
+			estimates.put(run, config.isEmpty() ? batchMedian : median(config));
+		}
+
+		Collections.sort(runs, new Comparator<Run>() {
+			@Override
+			public int compare(Run a, Run b) {
+				return estimates.get(b).compareTo(estimates.get(a));
+			}
+		});
+	}
+
+	private static long median(Collection<Long> values) {
+		final List<Long> sorted = Ordering.natural().sortedCopy(values);
+		return sorted.get(sorted.size() / 2);
+	}
+
+	/**
+	 * Adds a run to be taken next, ahead of anything already queued.
+	 */
+	public void addFirst(Run run) {
+		queue.addFirst(run);
+	}
+
+	/**
+	 * Adds a run to be taken after everything already queued.
+	 */
+	public void addLast(Run run) {
+		queue.addLast(run);
+	}
+
+	/**
+	 * Removes every queued run of a config which is expected to have the given iterationvars, returning the runs
+	 * removed. Runs already taken are left to finish.
+	 */
+	public synchronized List<SimulationRun> cancel(SimulationConfig config, String iterationVars) {
+		final List<SimulationRun> cancelled = Lists.newArrayList();
+
+		for (Iterator<Run> it = staged.iterator();it.hasNext();) {
+			final Run run = it.next();
+			if (isGroupMember(run, config, iterationVars)) {
+				it.remove();
+				cancelled.add((SimulationRun) run);
+			}
+		}
+
+		for (Run run : Lists.newArrayList(queue)) {
+			// A thread may take the run between finding and removing it, in which case it's left to run
+			if (isGroupMember(run, config, iterationVars) && queue.remove(run))
+				cancelled.add((SimulationRun) run);
+		}
+
+		return cancelled;
+	}
+
+	private static boolean isGroupMember(Run run, SimulationConfig config, String iterationVars) {
+		if (!(run instanceof SimulationRun) || run.getConfig() != config)
+			return false;
+
+		return iterationVars.equals(config.getExpectedIterationVars(((SimulationRun) run).getRunId()));
+	}
+
+	public Run poll() throws InterruptedException {
+		return queue.takeFirst();
+	}
+
+	public synchronized int size() {
+		return queue.size() + staged.size();
+	}
+
+	/**
+	 * Returns the number of runs released to the queue, without waiting on anything being added.
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	public int getPendingRuns() {
+		return pendingRuns.get();
+	}
+
+	public int addPending(int count) {
+		return pendingRuns.addAndGet(count);
+	}
+
+	public int removePending() {
+		return pendingRuns.decrementAndGet();
+	}
+}
@@ -1,42 +1,87 @@
 package com.jamierf.oversim.manager;
 
+import com.google.common.collect.Lists;
+import com.jamierf.oversim.manager.output.DataSink;
+import com.jamierf.oversim.manager.runnable.SimulationRun;
+import com.jamierf.oversim.manager.stats.RestoredStatistics;
+import com.jamierf.oversim.manager.stats.RunningStatistics;
+import com.jamierf.oversim.manager.stats.SummarySpec;
 import com.jamierf.oversim.manager.util.DirectoryArchiver;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.DurationFormatUtils;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileFilter;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class SimulationConfig extends DataSet {
+public class SimulationConfig extends DataSet implements SimulationConfigMBean {
+
+	// The manager's own bookkeeping in the result directory isn't raw data, so is left out of the archive
+	private static final FileFilter RAW_DATA = new FileFilter() {
+		@Override
+		public boolean accept(File file) {
+			return !file.getName().equals(".journal") && !file.getName().equals(".parsecache");
+		}
+	};
 
 	protected final String configFile;
 	protected final String configName;
+	protected final String id;
 	protected final File resultDir;
 	protected final File logDir;
 	protected final Map<String, String> parameters;
 	protected final long startTime;
 
-	public int pendingRuns;
-	public int completedRuns;
-	public int failedRuns;
+	public final AtomicInteger pendingRuns;
+	public final AtomicInteger completedRuns;
+	public final AtomicInteger failedRuns;
+	public final AtomicInteger skippedRuns;
+	protected final AtomicLong peakMemory;
+	protected DirectoryArchiver.Archive archive;
+	protected File archiveFile;
+	protected RunJournal journal;
+	protected ParseCache parseCache;
+	protected List<String> expectedIterationVars;
+	protected Map<String, Integer> expectedGroupSizes;
+	protected File partialFile;
+	protected PrintWriter partial;
+	protected BitSet finishedRuns;
+	protected Map<String, Integer> finishedGroupRuns;
 
-	public SimulationConfig(String configFile, String configName, File resultRootDir, String id) throws IOException {
-        this (configFile, configName, resultRootDir, id, new HashMap<String, String>(), 0);
+	public SimulationConfig(String configFile, String configName, File resultRootDir, String id, Map<String, SummarySpec> summaries) throws IOException {
+        this (configFile, configName, resultRootDir, id, summaries, new HashMap<String, String>(), 0);
 	}
 
-	public SimulationConfig(String configFile, String configName, File resultRootDir, String id, Map<String, String> globalParameters, int pendingRuns) throws IOException {
+	public SimulationConfig(String configFile, String configName, File resultRootDir, String id, Map<String, SummarySpec> summaries, Map<String, String> globalParameters, int pendingRuns) throws IOException {
+		super (summaries);
+
 		this.configFile = configFile;
 		this.configName = configName;
-		this.pendingRuns = pendingRuns;
+		this.id = id;
+		this.pendingRuns = new AtomicInteger(pendingRuns);
 
+		// Several workers may create the same directories at once, so only fail if they still aren't there
 		resultDir = new File(resultRootDir, configName + "-" + id);
-		if (!resultDir.isDirectory() && !resultDir.mkdir())
+		if (!resultDir.mkdirs() && !resultDir.isDirectory())
 			throw new RuntimeException("Unable to create result subdirectory.");
 
 		logDir = new File(resultDir, "logs");
-		if (!logDir.isDirectory() && !logDir.mkdir())
+		if (!logDir.mkdirs() && !logDir.isDirectory())
 			throw new RuntimeException("Unable to create logs subdirectory.");
 
 		// Create a map to hold overriding OverSim parameters for this specific config
@@ -47,18 +92,46 @@ public class SimulationConfig extends DataSet {
 		parameters.put("result-dir", resultDir.getCanonicalPath());
 
 		startTime = System.currentTimeMillis();
-		completedRuns = 0;
-		failedRuns = 0;
+		completedRuns = new AtomicInteger(0);
+		failedRuns = new AtomicInteger(0);
+		skippedRuns = new AtomicInteger(0);
+		peakMemory = new AtomicLong(0);
+	}
+
+	@Override
+	public int getPendingRuns() {
+		return pendingRuns.get();
+	}
+
+	@Override
+	public int getCompletedRuns() {
+		return completedRuns.get();
+	}
+
+	@Override
+	public int getFailedRuns() {
+		return failedRuns.get();
+	}
+
+	@Override
+	public int getSkippedRuns() {
+		return skippedRuns.get();
 	}
 
 	public String getFile() {
 		return configFile;
 	}
 
+	@Override
 	public String getName() {
 		return configName;
 	}
 
+	@Override
+	public String getId() {
+		return id;
+	}
+
 	public File getLogDir() {
 		return logDir;
 	}
@@ -71,22 +144,353 @@ public class SimulationConfig extends DataSet {
 		return parameters;
 	}
 
+	/**
+	 * Sets the iterationvars each run is expected to have, indexed by run id, as found by expanding the config
+	 * before anything has run, or null if they aren't known.
+	 */
+	public synchronized void setExpectedIterationVars(List<String> iterationVars) {
+		expectedIterationVars = iterationVars;
+		expectedGroupSizes = null;
+
+		if (iterationVars == null)
+			return;
+
+		expectedGroupSizes = new HashMap<String, Integer>();
+		for (String vars : iterationVars) {
+			final Integer size = expectedGroupSizes.get(vars);
+			expectedGroupSizes.put(vars, size == null ? 1 : size + 1);
+		}
+	}
+
+	/**
+	 * Returns the iterationvars a run is expected to have, or null if they won't be known until it is parsed.
+	 */
+	public synchronized String getExpectedIterationVars(int runId) {
+		if (expectedIterationVars == null || runId < 0 || runId >= expectedIterationVars.size())
+			return null;
+
+		return expectedIterationVars.get(runId);
+	}
+
+	/**
+	 * Returns how many runs are expected to share the given iterationvars, or -1 if it isn't known.
+	 */
+	public synchronized int getExpectedGroupSize(String iterationVars) {
+		if (expectedGroupSizes == null)
+			return -1;
+
+		final Integer size = expectedGroupSizes.get(iterationVars);
+		return size == null ? 0 : size;
+	}
+
+	/**
+	 * Releases the statistics of each set of parameters from memory once all of its runs have finished, appending
+	 * them to the given file instead, so results can be seen while the config is still running. Only works while
+	 * the iterationvars of each run are known.
+	 */
+	public synchronized void setPartialFile(File partialFile) {
+		this.partialFile = partialFile;
+
+		finishedRuns = new BitSet();
+		finishedGroupRuns = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Records that a run won't add any more data, whether it was parsed, failed or skipped. The run which finishes
+	 * its set of parameters releases the set to the partial results.
+	 */
+	public void finishRun(int runId) throws IOException {
+		final String uid;
+
+		synchronized (this) {
+			if (partialFile == null || expectedGroupSizes == null || finishedRuns.get(runId))
+				return;
+
+			uid = this.getExpectedIterationVars(runId);
+			if (uid == null)
+				return;
+
+			finishedRuns.set(runId);
+
+			final Integer count = finishedGroupRuns.get(uid);
+			final int finished = count == null ? 1 : count + 1;
+
+			if (finished < expectedGroupSizes.get(uid)) {
+				finishedGroupRuns.put(uid, finished);
+				return;
+			}
+
+			finishedGroupRuns.remove(uid);
+		}
+
+		this.releaseGroup(uid);
+	}
+
+	protected void releaseGroup(String uid) throws IOException {
+		final SortedMap<String, RunningStatistics> map = super.removeGroup(uid);
+		if (map == null)
+			return;
+
+		synchronized (this) {
+			// The file is started afresh each time, anything in it before was restored from the journal again
+			if (partial == null) {
+				partial = new PrintWriter(new BufferedWriter(new FileWriter(partialFile)));
+				partial.println("uid,scalar,count,mean,stddev,min,max,m2,quantiles");
+			}
+
+			// One row per scalar, so rows stay the same shape however many scalars turn up
+			for (Map.Entry<String, RunningStatistics> entry : map.entrySet()) {
+				final RunningStatistics stats = entry.getValue();
+
+				final List<String> quantiles = Lists.newArrayList();
+				for (double quantile : super.getSummary(entry.getKey()).getQuantiles())
+					quantiles.add(quantile + "=" + stats.getQuantile(quantile));
+
+				partial.println(quote(uid) + "," + quote(entry.getKey()) + "," + stats.getN() + "," + stats.getMean() + "," + stats.getStandardDeviation() + "," + stats.getMin() + "," + stats.getMax() + "," + stats.getSecondMoment() + "," + StringUtils.join(quantiles, ' '));
+			}
+
+			partial.flush();
+			if (partial.checkError())
+				throw new IOException("Error writing partial results to: " + partialFile);
+		}
+	}
+
+	/**
+	 * Reads back every set of parameters released to the partial results, so the full results can be written.
+	 */
+	protected synchronized void restorePartial() throws IOException {
+		if (partial == null)
+			return;
+
+		partial.close();
+		partial = null;
+
+		final BufferedReader in = new BufferedReader(new FileReader(partialFile));
+
+		try {
+			final Map<String, SortedMap<String, RunningStatistics>> groups = new LinkedHashMap<String, SortedMap<String, RunningStatistics>>();
+
+			// Skip the header
+			String line = in.readLine();
+			while ((line = in.readLine()) != null) {
+				final List<String> fields = unquote(line);
+				if (fields.size() != 9)
+					throw new IOException("Malformed partial results in " + partialFile + ": " + line);
+
+				final String[] quantileFields = fields.get(8).isEmpty() ? new String[0] : fields.get(8).split(" ");
+				final double[] quantiles = new double[quantileFields.length];
+				final double[] quantileValues = new double[quantileFields.length];
+
+				for (int i = 0;i < quantileFields.length;i++) {
+					final int separator = quantileFields[i].indexOf('=');
+					quantiles[i] = Double.parseDouble(quantileFields[i].substring(0, separator));
+					quantileValues[i] = Double.parseDouble(quantileFields[i].substring(separator + 1));
+				}
+
+				SortedMap<String, RunningStatistics> map = groups.get(fields.get(0));
+				if (map == null) {
+					map = new TreeMap<String, RunningStatistics>();
+					groups.put(fields.get(0), map);
+				}
+
+				map.put(fields.get(1), new RestoredStatistics(Long.parseLong(fields.get(2)), Double.parseDouble(fields.get(3)), Double.parseDouble(fields.get(7)), Double.parseDouble(fields.get(5)), Double.parseDouble(fields.get(6)), quantiles, quantileValues));
+			}
+
+			for (Map.Entry<String, SortedMap<String, RunningStatistics>> group : groups.entrySet())
+				super.restoreGroup(group.getKey(), group.getValue());
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static String quote(String field) {
+		return "\"" + field.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * Splits a CSV line, where fields may be quoted with any quotes inside doubled.
+	 */
+	private static List<String> unquote(String line) {
+		final List<String> fields = Lists.newArrayList();
+		final StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+
+		for (int i = 0;i < line.length();i++) {
+			final char c = line.charAt(i);
+
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append(c);
+					i++;
+				}
+				else if (c == '"') {
+					quoted = false;
+				}
+				else {
+					field.append(c);
+				}
+			}
+			else if (c == '"') {
+				quoted = true;
+			}
+			else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			}
+			else {
+				field.append(c);
+			}
+		}
+
+		fields.add(field.toString());
+		return fields;
+	}
+
+	/**
+	 * Opens the run journal in the result directory, returning what it already knew about each run.
+	 */
+	public Map<Integer, RunJournal.Entry> openJournal() throws IOException {
+		journal = new RunJournal(new File(resultDir, ".journal"));
+		return journal.getEntries();
+	}
+
+	/**
+	 * Opens the parse cache in the result directory, for results extracted with the given hash of wanted names and
+	 * with or without vectors.
+	 */
+	public void openParseCache(long wantedHash, boolean vectors) throws IOException {
+		parseCache = new ParseCache(new File(resultDir, ".parsecache"), wantedHash, vectors);
+	}
+
+	/**
+	 * Returns the parse cache of this config, or null if results aren't being cached.
+	 */
+	public ParseCache getParseCache() {
+		return parseCache;
+	}
+
+	/**
+	 * Returns the run journal of this config, or null if it isn't being journaled.
+	 */
+	public RunJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Returns the highest resident memory seen from any run of this config, in bytes.
+	 */
+	@Override
+	public long getPeakMemory() {
+		return peakMemory.get();
+	}
+
+	public void recordMemory(long bytes) {
+		for (long peak = peakMemory.get();bytes > peak;peak = peakMemory.get()) {
+			if (peakMemory.compareAndSet(peak, bytes))
+				break;
+		}
+	}
+
+	/**
+	 * Returns the archive this session writes the raw data to. An archive left by an earlier session of the same
+	 * config is never replaced, as runs it holds may already have been deleted, so each later session writes a
+	 * separate part such as name-id.part2.tar.gz.
+	 */
+	protected synchronized File getArchiveFile(File resultRootDir, DirectoryArchiver archiver) {
+		if (archiveFile == null) {
+			final String extension = archiver.getType().getExtension();
+
+			File file = new File(resultRootDir, resultDir.getName() + "." + extension);
+			for (int part = 2;file.exists();part++)
+				file = new File(resultRootDir, resultDir.getName() + ".part" + part + "." + extension);
+
+			archiveFile = file;
+		}
+
+		return archiveFile;
+	}
+
+	/**
+	 * Adds the result files and log of a single run to the archive of this config, opening it for the first run.
+	 */
+	public void archiveRun(int runId, File resultRootDir, DirectoryArchiver archiver, boolean deleteData) throws IOException {
+		final DirectoryArchiver.Archive archive;
+
+		synchronized (this) {
+			if (this.archive == null) {
+				this.archive = archiver.open(this.getArchiveFile(resultRootDir, archiver));
+
+				this.archive.add(resultDir, resultDir.getName());
+				this.archive.add(logDir, resultDir.getName() + "/" + logDir.getName());
+			}
+
+			archive = this.archive;
+		}
+
+		final List<File> files = Lists.newArrayList();
+		for (String ext : SimulationRun.RESULT_EXTENSIONS)
+			files.add(new File(resultDir, configName + "-" + runId + "." + ext));
+
+		files.add(new File(logDir, "run" + runId + ".log"));
+		files.add(new File(logDir, "run" + runId + ".log.gz"));
+
+		for (File file : files) {
+			if (!file.exists())
+				continue;
+
+			final String base = file.getParentFile().equals(logDir) ? resultDir.getName() + "/" + logDir.getName() : resultDir.getName();
+			archive.add(file, base + "/" + file.getName());
+
+			// The raw file is safely in the archive, so we can free up the space now
+			if (deleteData && !file.delete())
+				throw new IOException("Unable to delete archived file: " + file);
+		}
+	}
+
 	public void processData(Manager manager, File resultRootDir, DirectoryArchiver archiver, boolean deleteData) throws IOException {
 		// Lets process the data
 		manager.println("-------------------------------------");
 
-		// If we have any data, output a CSV of it
+		// Nothing more will happen to any run of this config
+		if (journal != null)
+			journal.close();
+
+		if (parseCache != null) {
+			if (parseCache.getHits() > 0)
+				manager.println("Parse cache: " + parseCache.getHits() + " runs read from the cache, " + parseCache.getMisses() + " parsed");
+
+			parseCache.close();
+		}
+
+		// Anything released early has to be written out along with the rest
+		this.restorePartial();
+
+		// If we have any data, write it to each output
 		if (super.hasData()) {
-			manager.println("Creating CSV file at: " + resultDir.getName() + ".csv");
+			for (DataSink sink : super.getSinks()) {
+				manager.println("Writing results to: " + sink.getFile().getName());
+				super.write(sink);
+			}
+		}
+
+		// The full results replace the partial ones
+		if (partialFile != null && partialFile.exists() && !partialFile.delete())
+			throw new IOException("Unable to delete partial results: " + partialFile);
 
-			// Save the collated data to a CSV file
-			super.writeCSV(new File(resultRootDir, resultDir.getName() + ".csv"));
+		// If runs were archived as they completed just finish off the archive, otherwise compress all the raw data now
+		if (archive != null) {
+			manager.println("Finishing archive: " + this.getArchiveFile(resultRootDir, archiver).getName());
+
+			// Pick up anything which didn't belong to a completed run, such as the logs of failed runs
+			archive.addAll(resultDir, "", RAW_DATA);
+			archive.close();
 		}
+		else if (archiver != null) {
+			final File archiveFile = this.getArchiveFile(resultRootDir, archiver);
 
-		// If we should compress the raw data, do it
-		if (archiver != null) {
-			manager.println("Compressing raw data to: " + resultDir.getName() + ".tar.gz");
-			archiver.compress(resultDir, new File(resultRootDir, resultDir.getName() + ".tar.gz"));
+			manager.println("Compressing raw data to: " + archiveFile.getName());
+			archiver.compress(resultDir, archiveFile, RAW_DATA);
 		}
 
 		// If we should delete the raw data, do it
@@ -102,6 +506,12 @@ public class SimulationConfig extends DataSet {
 		manager.println("Completed runs: " + completedRuns);
 		manager.println("Failed runs: " + failedRuns);
 
+		if (skippedRuns.get() > 0)
+			manager.println("Skipped runs: " + skippedRuns + " (target precision reached)");
+
+		if (peakMemory.get() > 0)
+			manager.println("Peak memory: " + (peakMemory.get() / 1048576) + "MB");
+
 		manager.println("-------------------------------------");
 	}
 
@@ -0,0 +1,15 @@
+package com.jamierf.oversim.manager;
+
+/**
+ * The progress of a single config published over JMX.
+ */
+public interface SimulationConfigMBean {
+
+	public String getName();
+	public String getId();
+	public int getPendingRuns();
+	public int getCompletedRuns();
+	public int getFailedRuns();
+	public int getSkippedRuns();
+	public long getPeakMemory();
+}
@@ -1,22 +1,38 @@
 package com.jamierf.oversim.manager;
 
 import com.jamierf.oversim.manager.runnable.Run;
+import com.jamierf.oversim.manager.runnable.SimulationRun;
 import org.apache.commons.lang.time.DurationFormatUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class SimulationThread extends Thread {
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SimulationThread extends Thread implements SimulationThreadMBean {
 
 	private static final Logger logger = LoggerFactory.getLogger(SimulationThread.class);
 
 	protected final Manager manager;
+	protected final AtomicInteger completedRuns;
+	protected final AtomicLong busyTime;
+	protected volatile Run current;
+	protected volatile long currentStartTime;
+	protected volatile long startTime;
 
 	public SimulationThread(Manager manager) {
 		this.manager = manager;
+
+		completedRuns = new AtomicInteger(0);
+		busyTime = new AtomicLong(0);
+
+		super.setName("SimulationThread(" + super.getId() + ")");
 	}
 
 	@Override
 	public void run() {
+		startTime = System.currentTimeMillis();
+
 		while (true) {
 			Run runnable = null;
 
@@ -29,17 +45,34 @@ public class SimulationThread extends Thread {
 			if (runnable == null)
 				break;
 
+			// Wait until there is enough memory to start the simulation
+			final MemoryGovernor governor = manager.getGovernor();
+			final boolean governed = governor != null && runnable instanceof SimulationRun;
+
+			if (governed) {
+				try {
+					governor.acquire((SimulationRun) runnable);
+				}
+				catch (InterruptedException e) {
+					break;
+				}
+			}
+
 			try {
 				final long runStartTime = System.currentTimeMillis();
 
+				currentStartTime = runStartTime;
+				current = runnable;
+
 				manager.started(this, runnable);
 				runnable.run();
 
                 final long duration = System.currentTimeMillis() - runStartTime;
+                completedRuns.incrementAndGet();
                 manager.println(this + " completed " + runnable + " in " + DurationFormatUtils.formatDurationWords(duration, true, true) + ".");
 
 				// Mark this simulation as completed
-				manager.completed(runnable);
+				manager.completed(runnable, duration);
 			}
 			catch (Exception e) {
 				if (logger.isWarnEnabled())
@@ -48,11 +81,54 @@ public class SimulationThread extends Thread {
 				// Something went wrong, mark as failed
 				manager.failed(this, runnable);
 			}
+			finally {
+				current = null;
+				busyTime.addAndGet(System.currentTimeMillis() - currentStartTime);
+
+				if (governed)
+					governor.release((SimulationRun) runnable);
+			}
 		}
 	}
 
+	@Override
+	public boolean isBusy() {
+		return current != null;
+	}
+
+	@Override
+	public String getCurrentRun() {
+		final Run run = current;
+		return run == null ? null : run.toString();
+	}
+
+	@Override
+	public int getCompletedRuns() {
+		return completedRuns.get();
+	}
+
+	/**
+	 * Returns the total time spent running, in milliseconds, including the current run.
+	 */
+	@Override
+	public long getBusyTime() {
+		final long start = currentStartTime;
+		return busyTime.get() + (current != null ? System.currentTimeMillis() - start : 0);
+	}
+
+	/**
+	 * Returns the fraction of time since starting that this thread has been running something.
+	 */
+	@Override
+	public double getUtilisation() {
+		if (startTime == 0)
+			return 0;
+
+		return (double) this.getBusyTime() / Math.max(1, System.currentTimeMillis() - startTime);
+	}
+
 	@Override
 	public String toString() {
-		return "SimulationThread(" + super.getId() + ")";
+		return super.getName();
 	}
 }
@@ -0,0 +1,13 @@
+package com.jamierf.oversim.manager;
+
+/**
+ * The state of a single simulation thread published over JMX.
+ */
+public interface SimulationThreadMBean {
+
+	public boolean isBusy();
+	public String getCurrentRun();
+	public int getCompletedRuns();
+	public long getBusyTime();
+	public double getUtilisation();
+}
@@ -0,0 +1,117 @@
+package com.jamierf.oversim.manager.ini;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A parsed omnetpp.ini file, including everything it includes.
+ *
+ * Sections keep their entries in the order they appear, as the order of iteration variables depends on it.
+ * Entries before the first section heading belong to [General].
+ */
+public class IniFile {
+
+	public static final String GENERAL = "General";
+
+	protected final Map<String, Map<String, String>> sections;
+
+	public IniFile(File file) throws IOException {
+		sections = new LinkedHashMap<String, Map<String, String>>();
+
+		this.parse(file.getCanonicalFile(), GENERAL, Sets.<File>newHashSet());
+	}
+
+	private String parse(File file, String section, Set<File> visited) throws IOException {
+		if (!visited.add(file))
+			throw new IOException("Recursive include of " + file);
+
+		final List<String> lines = Files.readLines(file, Charsets.UTF_8);
+
+		for (int i = 0;i < lines.size();i++) {
+			String line = stripComment(lines.get(i));
+
+			// A trailing backslash continues the line
+			while (line.endsWith("\\") && i + 1 < lines.size())
+				line = line.substring(0, line.length() - 1) + stripComment(lines.get(++i));
+
+			line = line.trim();
+			if (line.isEmpty())
+				continue;
+
+			if (line.startsWith("[")) {
+				if (!line.endsWith("]"))
+					throw new IOException("Malformed section heading in " + file + " line " + (i + 1) + ": " + line);
+
+				section = line.substring(1, line.length() - 1).trim();
+				if (section.startsWith("Config "))
+					section = section.substring(7).trim();
+
+				continue;
+			}
+
+			if (line.startsWith("include ")) {
+				section = this.parse(new File(file.getParentFile(), line.substring(8).trim()).getCanonicalFile(), section, visited);
+				continue;
+			}
+
+			final int equals = line.indexOf('=');
+			if (equals < 0)
+				throw new IOException("Malformed entry in " + file + " line " + (i + 1) + ": " + line);
+
+			this.getOrCreate(section).put(line.substring(0, equals).trim(), line.substring(equals + 1).trim());
+		}
+
+		visited.remove(file);
+
+		// An included file can change the current section for the rest of the including file
+		return section;
+	}
+
+	private Map<String, String> getOrCreate(String section) {
+		Map<String, String> entries = sections.get(section);
+		if (entries == null) {
+			entries = Maps.newLinkedHashMap();
+			sections.put(section, entries);
+		}
+
+		return entries;
+	}
+
+	private static String stripComment(String line) {
+		boolean quoted = false;
+
+		for (int i = 0;i < line.length();i++) {
+			final char c = line.charAt(i);
+
+			if (c == '\\' && quoted)
+				i++;
+			else if (c == '"')
+				quoted = !quoted;
+			else if (c == '#' && !quoted)
+				return line.substring(0, i);
+		}
+
+		return line;
+	}
+
+	public boolean hasSection(String name) {
+		return sections.containsKey(name);
+	}
+
+	/**
+	 * Returns the entries of a section in the order they appear, or null if there is no such section. Configs
+	 * are named without their "Config " prefix.
+	 */
+	public Map<String, String> getSection(String name) {
+		return sections.get(name);
+	}
+}
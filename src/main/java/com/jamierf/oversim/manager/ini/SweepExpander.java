@@ -0,0 +1,306 @@
+package com.jamierf.oversim.manager.ini;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Expands a config of an omnetpp.ini file into its runs, the same way OverSim does, without starting OverSim.
+ *
+ * Iteration variables are collected from the config, then the configs it extends and finally [General], each in
+ * the order they appear. Runs are numbered with the first variable as the outermost loop and the repetitions as
+ * the innermost, so the last variable changes fastest between repetitions. Each run is described by its
+ * iterationvars exactly as they are written to the .sca header.
+ *
+ * Only plain value lists and numeric ranges are supported. Anything else, such as variables depending on other
+ * variables, parallel iteration or constraints, throws an IOException so the caller can fall back to OverSim.
+ */
+public class SweepExpander {
+
+	private static final Pattern NAMED = Pattern.compile("^\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*=(.*)$", Pattern.DOTALL);
+	private static final Pattern REFERENCE = Pattern.compile("^\\s*[A-Za-z_][A-Za-z0-9_]*\\s*$");
+	private static final Pattern RANGE = Pattern.compile("^([-+]?[0-9.]+(?:[eE][-+]?[0-9]+)?)\\s*\\.\\.\\s*([-+]?[0-9.]+(?:[eE][-+]?[0-9]+)?)(?:\\s+step\\s+([-+]?[0-9.]+(?:[eE][-+]?[0-9]+)?))?$");
+	private static final int MAX_RUNS = 1 << 24;
+
+	private static class Variable {
+
+		private final String name;
+		private final List<String> values;
+
+		private Variable(String name, List<String> values) {
+			this.name = name;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * Returns the iterationvars of every run of the given config, indexed by run number, or an empty list if
+	 * the config doesn't exist.
+	 */
+	public static List<String> expand(IniFile ini, String configName) throws IOException {
+		final List<Map<String, String>> chain = getSectionChain(ini, configName);
+		if (chain.isEmpty())
+			return Collections.emptyList();
+
+		final List<Variable> variables = Lists.newArrayList();
+		final Set<String> names = Sets.newHashSet();
+		int unnamed = 0;
+
+		for (Map<String, String> section : chain) {
+			for (Map.Entry<String, String> entry : section.entrySet()) {
+				if (entry.getKey().equals("constraint"))
+					throw new IOException("Constraints are not supported.");
+
+				for (String body : findIterations(entry.getValue())) {
+					final Matcher named = NAMED.matcher(body);
+
+					final String name;
+					final String values;
+
+					if (named.matches()) {
+						name = named.group(1);
+						values = named.group(2);
+					}
+					else if (REFERENCE.matcher(body).matches()) {
+						// Just a reference to another variable, such as ${repetition}
+						continue;
+					}
+					else {
+						name = String.valueOf(unnamed++);
+						values = body;
+					}
+
+					if (!names.add(name))
+						throw new IOException("Redefinition of iteration variable: " + name);
+
+					variables.add(new Variable(name, parseValues(values)));
+				}
+			}
+		}
+
+		final int repeat = getRepeat(chain);
+
+		long total = repeat;
+		for (Variable variable : variables) {
+			total *= variable.values.size();
+
+			if (total > MAX_RUNS)
+				throw new IOException("Too many runs to expand.");
+		}
+
+		final List<String> runs = Lists.newArrayListWithCapacity((int) total);
+		final int[] indexes = new int[variables.size()];
+
+		for (int run = 0;run < total;run += repeat) {
+			final String iterationVars = formatIterationVars(variables, indexes);
+			for (int i = 0;i < repeat;i++)
+				runs.add(iterationVars);
+
+			// Count up with the last variable changing fastest
+			for (int i = indexes.length - 1;i >= 0;i--) {
+				if (++indexes[i] < variables.get(i).values.size())
+					break;
+
+				indexes[i] = 0;
+			}
+		}
+
+		return runs;
+	}
+
+	private static List<Map<String, String>> getSectionChain(IniFile ini, String configName) throws IOException {
+		final List<Map<String, String>> chain = Lists.newArrayList();
+		final Set<String> visited = Sets.newHashSet();
+
+		for (String name = configName;name != null;) {
+			final Map<String, String> section = ini.getSection(name);
+			if (section == null) {
+				if (name.equals(configName) && !name.equals(IniFile.GENERAL))
+					return Collections.emptyList();
+
+				// A config without any entries, such as [General] with everything in the configs
+				break;
+			}
+
+			if (!visited.add(name))
+				throw new IOException("Circular extends of config: " + name);
+
+			chain.add(section);
+
+			name = section.get("extends");
+			if (name != null && name.contains(","))
+				throw new IOException("Extending multiple configs is not supported.");
+		}
+
+		if (!visited.contains(IniFile.GENERAL) && ini.hasSection(IniFile.GENERAL))
+			chain.add(ini.getSection(IniFile.GENERAL));
+
+		return chain;
+	}
+
+	private static int getRepeat(List<Map<String, String>> chain) throws IOException {
+		for (Map<String, String> section : chain) {
+			final String repeat = section.get("repeat");
+			if (repeat == null)
+				continue;
+
+			try {
+				final int count = Integer.parseInt(repeat.trim());
+				if (count < 1)
+					throw new IOException("Invalid repeat count: " + repeat);
+
+				return count;
+			}
+			catch (NumberFormatException e) {
+				throw new IOException("Unsupported repeat count: " + repeat);
+			}
+		}
+
+		return 1;
+	}
+
+	/**
+	 * Returns the body of every ${...} in a value, skipping anything inside quotes.
+	 */
+	private static List<String> findIterations(String value) throws IOException {
+		final List<String> bodies = Lists.newArrayList();
+		boolean quoted = false;
+
+		for (int i = 0;i < value.length();i++) {
+			final char c = value.charAt(i);
+
+			if (c == '\\' && quoted) {
+				i++;
+			}
+			else if (c == '"') {
+				quoted = !quoted;
+			}
+			else if (c == '$' && !quoted && i + 1 < value.length() && value.charAt(i + 1) == '{') {
+				final int end = findClose(value, i + 2);
+				if (end < 0)
+					throw new IOException("Unterminated iteration in: " + value);
+
+				bodies.add(value.substring(i + 2, end));
+				i = end;
+			}
+		}
+
+		return bodies;
+	}
+
+	private static int findClose(String value, int start) {
+		boolean quoted = false;
+
+		for (int i = start;i < value.length();i++) {
+			final char c = value.charAt(i);
+
+			if (c == '\\' && quoted)
+				i++;
+			else if (c == '"')
+				quoted = !quoted;
+			else if (c == '}' && !quoted)
+				return i;
+		}
+
+		return -1;
+	}
+
+	private static List<String> parseValues(String values) throws IOException {
+		final List<String> items = Lists.newArrayList();
+		boolean quoted = false;
+		int start = 0;
+
+		for (int i = 0;i <= values.length();i++) {
+			final char c = i < values.length() ? values.charAt(i) : ',';
+
+			if (c == '\\' && quoted) {
+				i++;
+			}
+			else if (c == '"') {
+				quoted = !quoted;
+			}
+			else if (!quoted && (c == '!' || c == '$')) {
+				throw new IOException("Unsupported iteration: " + values);
+			}
+			else if (!quoted && c == ',') {
+				parseItem(values.substring(start, Math.min(i, values.length())).trim(), items);
+				start = i + 1;
+			}
+		}
+
+		return items;
+	}
+
+	private static void parseItem(String item, List<String> items) throws IOException {
+		final Matcher range = RANGE.matcher(item);
+		if (!range.matches()) {
+			items.add(item);
+			return;
+		}
+
+		try {
+			final BigDecimal from = new BigDecimal(range.group(1));
+			final BigDecimal to = new BigDecimal(range.group(2));
+			final BigDecimal step = range.group(3) == null ? BigDecimal.ONE : new BigDecimal(range.group(3));
+
+			if (step.signum() <= 0)
+				throw new IOException("Invalid step in range: " + item);
+
+			for (BigDecimal value = from;value.compareTo(to) <= 0;value = value.add(step)) {
+				items.add(formatNumber(value));
+
+				if (items.size() > MAX_RUNS)
+					throw new IOException("Too many values in range: " + item);
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Malformed range: " + item);
+		}
+	}
+
+	private static String formatNumber(BigDecimal value) {
+		if (value.signum() == 0)
+			return "0";
+
+		return value.stripTrailingZeros().toPlainString();
+	}
+
+	private static String formatIterationVars(List<Variable> variables, int[] indexes) {
+		final StringBuilder vars = new StringBuilder();
+
+		for (int i = 0;i < variables.size();i++) {
+			if (i > 0)
+				vars.append(", ");
+
+			final Variable variable = variables.get(i);
+			vars.append('$').append(variable.name).append('=').append(variable.values.get(indexes[i]));
+		}
+
+		return quoteIfNeeded(vars.toString());
+	}
+
+	/**
+	 * Quotes a value the same way as the attributes in a .sca header.
+	 */
+	private static String quoteIfNeeded(String value) {
+		boolean needed = value.isEmpty();
+
+		for (int i = 0;i < value.length() && !needed;i++) {
+			final char c = value.charAt(i);
+			needed = Character.isWhitespace(c) || c == '"' || c == '\\';
+		}
+
+		if (!needed)
+			return value;
+
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+}
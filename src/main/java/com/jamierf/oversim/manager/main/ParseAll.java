@@ -0,0 +1,293 @@
+package com.jamierf.oversim.manager.main;
+
+import com.google.common.collect.Lists;
+import com.jamierf.oversim.manager.DataSet;
+import com.jamierf.oversim.manager.Manager;
+import com.jamierf.oversim.manager.ParseCache;
+import com.jamierf.oversim.manager.output.DataSink;
+import com.jamierf.oversim.manager.stats.SummarySpec;
+import com.jamierf.oversim.manager.util.ScalarExtractor;
+import com.jamierf.oversim.manager.util.VectorExtractor;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.lang.time.DurationFormatUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Re-parses the raw results of any number of result directories in one go, without needing OverSim, writing the
+ * outputs of each directory next to it as the manager would have.
+ *
+ * Each argument is a directory, or a glob matching several, for example results/Chord-* or "results/*-13*". The
+ * .sca files of each directory are parsed on a fork/join pool, each task into a data set of its own, which are
+ * merged once every file is parsed. What was extracted from each file is kept in a .parsecache file in its directory,
+ * so parsing the same directory again only reads the files that have changed since.
+ */
+public class ParseAll {
+
+	private static final Logger logger = LoggerFactory.getLogger(ParseAll.class);
+
+	// The fewest files parsed by a single task before it stops splitting its share
+	private static final int FILES_PER_TASK = 32;
+
+	public static final void main(String[] args) {
+		try {
+			if (args.length < 1) {
+				System.err.println("Usage: <result directory or glob> [<result directory or glob>...]");
+				System.exit(1);
+			}
+
+			// Load the config file
+			final PropertiesConfiguration config = new PropertiesConfiguration("manager.ini");
+
+			final Map<String, SummarySpec> summaries = new HashMap<String, SummarySpec>();
+			final String[] wantedScalars = Manager.getWantedScalars(config, summaries);
+			final ScalarExtractor extractor = new ScalarExtractor(wantedScalars);
+
+			final String[] wantedVectors = config.getStringArray("data.vector");
+			final VectorExtractor vectorExtractor = wantedVectors.length > 0 ? new VectorExtractor(wantedVectors) : null;
+
+			final boolean useCache = config.getBoolean("data.parse-cache", true);
+			final long wantedHash = ParseCache.hashWanted(wantedScalars, wantedVectors);
+
+			final List<DataSink.Type> outputs = Manager.getOutputs(config);
+
+			final List<Path> dirs = Lists.newArrayList();
+			for (String pattern : args)
+				dirs.addAll(expand(pattern));
+
+			if (dirs.isEmpty()) {
+				System.err.println("No result directories found.");
+				System.exit(1);
+			}
+
+			final ForkJoinPool pool = new ForkJoinPool();
+
+			for (Path dir : dirs) {
+				final long startTime = System.currentTimeMillis();
+
+				final List<Path> files = Lists.newArrayList();
+				final DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.sca");
+
+				try {
+					for (Path file : stream)
+						files.add(file);
+				}
+				finally {
+					stream.close();
+				}
+
+				// Each output goes next to the directory, named after it
+				final List<DataSink> sinks = Lists.newArrayList();
+				for (DataSink.Type type : outputs)
+					sinks.add(type.create(new File(dir.toFile().getParentFile(), dir.getFileName() + "." + type.getExtension())));
+
+				final ParseCache cache = useCache ? new ParseCache(dir.resolve(".parsecache").toFile(), wantedHash, vectorExtractor != null) : null;
+				final AtomicInteger failed = new AtomicInteger(0);
+				final DataSet data;
+
+				try {
+					data = pool.invoke(new ParseTask(files, 0, files.size(), extractor, vectorExtractor, cache, summaries, sinks, failed));
+				}
+				finally {
+					if (cache != null)
+						cache.close();
+				}
+
+				if (!data.hasData()) {
+					System.out.println(dir + ": no results found.");
+					continue;
+				}
+
+				for (DataSink sink : sinks)
+					data.write(sink);
+
+				System.out.println(dir + ": parsed " + (files.size() - failed.get()) + " runs (" + failed.get() + " failed" + (cache != null ? ", " + cache.getHits() + " cached" : "") + ") in " + DurationFormatUtils.formatDurationWords(System.currentTimeMillis() - startTime, true, true) + ".");
+			}
+
+			pool.shutdown();
+		}
+		catch (IOException e) {
+			if (logger.isErrorEnabled())
+				logger.error("Error parsing results", e);
+		}
+		catch (ConfigurationException e) {
+			if (logger.isErrorEnabled())
+				logger.error("Error loading configuration or malformed configuration", e);
+		}
+		catch (RuntimeException e) {
+			if (logger.isErrorEnabled())
+				logger.error("Error parsing results", e);
+		}
+	}
+
+	/**
+	 * Expands a glob into the directories it matches, walking a directory stream for each part containing a
+	 * wildcard.
+	 */
+	protected static List<Path> expand(String pattern) throws IOException {
+		final Path path = Paths.get(pattern);
+
+		List<Path> matches = Lists.newArrayList();
+		matches.add(path.isAbsolute() ? path.getRoot() : Paths.get("."));
+
+		for (Path part : path) {
+			final String name = part.toString();
+			final List<Path> next = Lists.newArrayList();
+
+			for (Path parent : matches) {
+				if (!isGlob(name)) {
+					final Path child = parent.resolve(name);
+					if (Files.exists(child))
+						next.add(child);
+
+					continue;
+				}
+
+				if (!Files.isDirectory(parent))
+					continue;
+
+				final DirectoryStream<Path> stream = Files.newDirectoryStream(parent, name);
+
+				try {
+					for (Path child : stream)
+						next.add(child);
+				}
+				finally {
+					stream.close();
+				}
+			}
+
+			matches = next;
+		}
+
+		final List<Path> dirs = Lists.newArrayList();
+		for (Path match : matches) {
+			if (Files.isDirectory(match))
+				dirs.add(match.normalize());
+		}
+
+		Collections.sort(dirs);
+		return dirs;
+	}
+
+	private static boolean isGlob(String name) {
+		return name.indexOf('*') >= 0 || name.indexOf('?') >= 0 || name.indexOf('[') >= 0 || name.indexOf('{') >= 0;
+	}
+
+	/**
+	 * Parses a range of files into a data set of its own, splitting the range in half while it is large enough.
+	 */
+	private static class ParseTask extends RecursiveTask<DataSet> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Path> files;
+		private final int from;
+		private final int to;
+		private final ScalarExtractor extractor;
+		private final VectorExtractor vectorExtractor;
+		private final ParseCache cache;
+		private final Map<String, SummarySpec> summaries;
+		private final List<DataSink> sinks;
+		private final AtomicInteger failed;
+
+		public ParseTask(List<Path> files, int from, int to, ScalarExtractor extractor, VectorExtractor vectorExtractor, ParseCache cache, Map<String, SummarySpec> summaries, List<DataSink> sinks, AtomicInteger failed) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+			this.extractor = extractor;
+			this.vectorExtractor = vectorExtractor;
+			this.cache = cache;
+			this.summaries = summaries;
+			this.sinks = sinks;
+			this.failed = failed;
+		}
+
+		@Override
+		protected DataSet compute() {
+			if (to - from > FILES_PER_TASK) {
+				final int middle = (from + to) >>> 1;
+
+				final ParseTask left = new ParseTask(files, from, middle, extractor, vectorExtractor, cache, summaries, sinks, failed);
+				final ParseTask right = new ParseTask(files, middle, to, extractor, vectorExtractor, cache, summaries, sinks, failed);
+
+				left.fork();
+				final DataSet data = right.compute();
+				data.merge(left.join());
+
+				return data;
+			}
+
+			// The sinks see every run, even though the statistics are merged later
+			final DataSet data = new DataSet(summaries);
+			for (DataSink sink : sinks)
+				data.addSink(sink);
+
+			for (int i = from;i < to;i++) {
+				try {
+					this.parse(files.get(i).toFile(), data);
+				}
+				catch (Exception e) {
+					if (logger.isWarnEnabled())
+						logger.warn("Error processing data from " + files.get(i), e);
+
+					failed.incrementAndGet();
+				}
+			}
+
+			return data;
+		}
+
+		private void parse(File sca, DataSet data) throws IOException {
+			final SortedMap<String, String> scalars = new TreeMap<String, String>();
+
+			// Unchanged files are read straight from the cache
+			final String cached = cache == null ? null : cache.get(sca, scalars);
+			if (cached != null) {
+				data.mergeData(cached, scalars);
+				return;
+			}
+
+			final Map<String, String> attributes = new HashMap<String, String>();
+			extractor.extract(sca, attributes, scalars);
+
+			if (vectorExtractor != null) {
+				final String base = sca.getPath().substring(0, sca.getPath().length() - ".sca".length());
+				final File vec = new File(base + ".vec");
+
+				if (vec.exists()) {
+					try {
+						vectorExtractor.extract(vec, new File(base + ".vci"), scalars);
+					}
+					catch (IOException e) {
+						if (logger.isWarnEnabled())
+							logger.warn("Error processing vectors", e);
+					}
+				}
+			}
+
+			final String iterationVars = attributes.get("iterationvars");
+			if (cache != null && iterationVars != null)
+				cache.put(sca, iterationVars, scalars);
+
+			data.mergeData(iterationVars, scalars);
+		}
+	}
+}
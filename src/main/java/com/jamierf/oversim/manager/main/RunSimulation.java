@@ -47,9 +47,7 @@ public class RunSimulation {
             }
 
             final String id = idOptional.or(String.valueOf(System.currentTimeMillis() / 1000));
-			for (String configName : configNames) {
-				manager.addRunConfig(configName, id);
-            }
+			manager.addRunConfigs(Lists.newArrayList(configNames), id);
 
 			manager.start();
 		}
@@ -0,0 +1,80 @@
+package com.jamierf.oversim.manager.main;
+
+import com.google.common.collect.Lists;
+import com.jamierf.oversim.manager.Manager;
+import com.jamierf.oversim.manager.SimulationConfig;
+import com.jamierf.oversim.manager.remote.Worker;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RunWorker {
+
+	private static final Logger logger = LoggerFactory.getLogger(RunWorker.class);
+
+	public static void main(String[] args) {
+		try {
+			if (args.length < 2) {
+				System.err.println("Usage: RunWorker <host> <port> [threads]");
+				System.exit(1);
+			}
+
+			// Load the config file, only the local simulation settings are used
+			final PropertiesConfiguration config = new PropertiesConfiguration("manager.ini");
+
+			final String host = args[0];
+			final int port = Integer.parseInt(args[1]);
+			final int threadCount = args.length > 2 ? Integer.parseInt(args[2]) : config.getInt("simulation.max-threads", Runtime.getRuntime().availableProcessors());
+
+			final File workingDir = new File(config.getString("simulation.working-dir", "."));
+			final File resultRootDir = new File(workingDir, "results");
+			if (!resultRootDir.isDirectory())
+				throw new ConfigurationException("Invalid result directory: " + resultRootDir.getCanonicalPath());
+
+			final File overSim = Manager.findOverSim(workingDir, config.getString("simulation.executable-name", "OverSim"));
+			final boolean compressLogs = config.getBoolean("simulation.compress-logs", false);
+
+			if (logger.isInfoEnabled())
+				logger.info("Using OverSim at: " + overSim.getPath());
+
+			final String hostName = InetAddress.getLocalHost().getHostName();
+			final List<Worker> workers = Lists.newArrayList();
+
+			// The workers share their configs, so each result directory is only set up once
+			final Map<String, SimulationConfig> configs = new HashMap<String, SimulationConfig>();
+
+			for (int i = 0;i < threadCount;i++) {
+				final Worker worker = new Worker(hostName + "-" + i, host, port, workingDir, overSim, resultRootDir, compressLogs, configs);
+				workers.add(worker);
+				worker.start();
+			}
+
+			for (Worker worker : workers)
+				worker.join();
+		}
+		catch (NumberFormatException e) {
+			if (logger.isErrorEnabled())
+				logger.error("Malformed port or thread count", e);
+		}
+		catch (IOException e) {
+			if (logger.isErrorEnabled())
+				logger.error("Error loading OverSim", e);
+		}
+		catch (InterruptedException e) {
+			if (logger.isErrorEnabled())
+				logger.error("Error running OverSim", e);
+		}
+		catch (ConfigurationException e) {
+			if (logger.isErrorEnabled())
+				logger.error("Error loading configuration or malformed configuration", e);
+		}
+	}
+}
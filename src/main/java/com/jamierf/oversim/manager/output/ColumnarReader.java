@@ -0,0 +1,193 @@
+package com.jamierf.oversim.manager.output;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the files written by ColumnarSink. Only the footer is read up front, each column is memory mapped when
+ * asked for, so loading one scalar of every run doesn't touch the rest of the file.
+ *
+ * For example, the value of a scalar in each run along with the iterationvars of the run:
+ * <pre>
+ *   final DoubleBuffer values = reader.getRunValues("GlobalStatistics: Simulation Time");
+ *   final IntBuffer groups = reader.getRunGroups();
+ *   reader.getUids().get(groups.get(i)) + " = " + values.get(i)
+ * </pre>
+ */
+public class ColumnarReader implements Closeable {
+
+	protected final RandomAccessFile file;
+	protected final FileChannel channel;
+	protected final int groupCount;
+	protected final int runCount;
+	protected final List<String> uids;
+	protected final List<String> headers;
+	protected final Map<String, List<String>> variables;
+	protected final Map<String, ColumnarSink.Column> columns;
+
+	public ColumnarReader(File file) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+
+		try {
+			channel = this.file.getChannel();
+
+			final long length = this.file.length();
+			if (length < 20 || this.file.readInt() != ColumnarSink.MAGIC)
+				throw new IOException("Not a columnar result file: " + file);
+
+			final int version = this.file.readInt();
+			if (version != ColumnarSink.VERSION)
+				throw new IOException("Unsupported columnar result file version " + version + ": " + file);
+
+			this.file.seek(length - 12);
+			final long footerOffset = this.file.readLong();
+			if (this.file.readInt() != ColumnarSink.MAGIC || footerOffset < 8 || footerOffset > length - 12)
+				throw new IOException("Truncated columnar result file: " + file);
+
+			final byte[] footer = new byte[(int) (length - 12 - footerOffset)];
+			this.file.seek(footerOffset);
+			this.file.readFully(footer);
+
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(footer));
+
+			groupCount = in.readInt();
+			runCount = in.readInt();
+
+			uids = readStrings(in);
+			headers = readStrings(in);
+
+			variables = Maps.newLinkedHashMap();
+			for (int count = in.readInt();count > 0;count--)
+				variables.put(in.readUTF(), readStrings(in));
+
+			columns = Maps.newLinkedHashMap();
+			for (int count = in.readInt();count > 0;count--) {
+				final ColumnarSink.Column column = new ColumnarSink.Column(in.readUTF(), in.readByte(), in.readLong(), in.readInt());
+				columns.put(column.name, column);
+			}
+		}
+		catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	private static List<String> readStrings(DataInputStream in) throws IOException {
+		final List<String> strings = Lists.newArrayList();
+		for (int count = in.readInt();count > 0;count--)
+			strings.add(in.readUTF());
+
+		return Collections.unmodifiableList(strings);
+	}
+
+	public int getGroupCount() {
+		return groupCount;
+	}
+
+	public int getRunCount() {
+		return runCount;
+	}
+
+	/**
+	 * Returns the iterationvars of each set of parameters, indexed the same as the group columns.
+	 */
+	public List<String> getUids() {
+		return uids;
+	}
+
+	public List<String> getHeaders() {
+		return headers;
+	}
+
+	public Set<String> getVariables() {
+		return Collections.unmodifiableSet(variables.keySet());
+	}
+
+	/**
+	 * Returns the distinct values of an iteration variable, indexed by the codes in its group column.
+	 */
+	public List<String> getVariableValues(String variable) {
+		final List<String> values = variables.get(variable);
+		if (values == null)
+			throw new IllegalArgumentException("No such iteration variable: " + variable);
+
+		return values;
+	}
+
+	public Set<String> getColumns() {
+		return Collections.unmodifiableSet(columns.keySet());
+	}
+
+	/**
+	 * Returns the value of a scalar in every run, NaN where it wasn't recorded.
+	 */
+	public DoubleBuffer getRunValues(String header) throws IOException {
+		return this.getDoubles("run." + header);
+	}
+
+	/**
+	 * Returns the index of the set of parameters each run belongs to.
+	 */
+	public IntBuffer getRunGroups() throws IOException {
+		return this.getInts("run.group");
+	}
+
+	/**
+	 * Returns a statistic of every set of parameters, such as "name.mean" or "name.p95".
+	 */
+	public DoubleBuffer getGroupValues(String statistic) throws IOException {
+		return this.getDoubles("group." + statistic);
+	}
+
+	/**
+	 * Returns the code of the value of an iteration variable for every set of parameters, -1 where it isn't set.
+	 */
+	public IntBuffer getGroupVariable(String variable) throws IOException {
+		return this.getInts("group." + variable);
+	}
+
+	public DoubleBuffer getDoubles(String name) throws IOException {
+		final ColumnarSink.Column column = this.getColumn(name, ColumnarSink.Column.DOUBLE);
+		return channel.map(FileChannel.MapMode.READ_ONLY, column.offset, 8L * column.length).asDoubleBuffer();
+	}
+
+	public IntBuffer getInts(String name) throws IOException {
+		final ColumnarSink.Column column = this.getColumn(name, ColumnarSink.Column.INT);
+		return channel.map(FileChannel.MapMode.READ_ONLY, column.offset, 4L * column.length).asIntBuffer();
+	}
+
+	protected ColumnarSink.Column getColumn(String name, byte type) {
+		final ColumnarSink.Column column = columns.get(name);
+		if (column == null)
+			throw new IllegalArgumentException("No such column: " + name);
+
+		if (column.type != type)
+			throw new IllegalArgumentException("Column " + name + " is of type " + (char) column.type + ", not " + (char) type);
+
+		return column;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnarReader(groups = " + groupCount + "; runs = " + runCount + ";)";
+	}
+}
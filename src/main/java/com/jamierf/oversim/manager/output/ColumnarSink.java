@@ -0,0 +1,469 @@
+package com.jamierf.oversim.manager.output;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.jamierf.oversim.manager.DataSet;
+import com.jamierf.oversim.manager.stats.RunningStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Writes a compact binary file of columns, so a single scalar can be loaded for every run or every set of
+ * parameters without reading anything else. Read it back with ColumnarReader.
+ *
+ * The layout, big endian throughout:
+ * <pre>
+ *   magic (int), version (int)
+ *   columns, each starting on an 8 byte boundary
+ *   footer:
+ *     group count (int), run count (int)
+ *     uids (int count, UTF each), in the order of the group columns
+ *     headers (int count, UTF each)
+ *     iteration variables (int count, then for each its name (UTF) and values (int count, UTF each))
+ *     columns (int count, then for each its name (UTF), type (byte, 'I' or 'D'), offset (long), length (int))
+ *   footer offset (long), magic (int)
+ * </pre>
+ * The columns are:
+ * <pre>
+ *   group.$var          int, the index of the value of each iteration variable in its dictionary, or -1
+ *   group.name.mean     double, along with .stddev, .count and any extra summary statistics of each scalar
+ *   run.group           int, the index of the set of parameters each run belongs to
+ *   run.name            double, the value of each scalar in each run, or NaN if it wasn't recorded
+ * </pre>
+ * Runs are spilled to a temporary file as they are merged, so keeping every repetition doesn't grow the heap. Each
+ * thread encodes its runs into a buffer of its own which is only spilled once full, so merges running in parallel
+ * don't queue up on the sink.
+ */
+public class ColumnarSink implements DataSink {
+
+	public static final int MAGIC = 0x4F53434C;
+	public static final int VERSION = 1;
+
+	private static final Logger logger = LoggerFactory.getLogger(ColumnarSink.class);
+
+	// How much each thread buffers before spilling its runs
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	protected final File file;
+	protected final File spillFile;
+	protected final ConcurrentMap<String, Integer> uidCodes;
+	protected final List<String> uids;
+	protected final ConcurrentMap<String, Integer> headerCodes;
+	protected final List<String> headers;
+	protected final List<RunBuffer> buffers;
+	protected final ThreadLocal<RunBuffer> localBuffer;
+	protected DataOutputStream spill;
+	protected int runCount;
+	protected volatile IOException error;
+
+	public ColumnarSink(File file) {
+		this.file = file;
+
+		spillFile = new File(file.getPath() + ".tmp");
+		uidCodes = new ConcurrentHashMap<String, Integer>();
+		uids = Lists.newArrayList();
+		headerCodes = new ConcurrentHashMap<String, Integer>();
+		headers = Lists.newArrayList();
+		buffers = new CopyOnWriteArrayList<RunBuffer>();
+		localBuffer = new ThreadLocal<RunBuffer>() {
+			@Override
+			protected RunBuffer initialValue() {
+				final RunBuffer buffer = new RunBuffer();
+				buffers.add(buffer);
+
+				return buffer;
+			}
+		};
+		spill = null;
+		runCount = 0;
+		error = null;
+	}
+
+	@Override
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public void addRun(String uid, SortedMap<String, String> scalars) {
+		if (error != null)
+			return;
+
+		try {
+			// Only numeric values are kept, the same as the statistics
+			final int[] codes = new int[scalars.size()];
+			final double[] values = new double[scalars.size()];
+			int count = 0;
+
+			for (Map.Entry<String, String> scalar : scalars.entrySet()) {
+				try {
+					values[count] = Double.parseDouble(scalar.getValue());
+					codes[count] = this.encode(headerCodes, headers, scalar.getKey());
+					count++;
+				}
+				catch (NumberFormatException e) { }
+			}
+
+			final RunBuffer buffer = localBuffer.get();
+
+			buffer.out.writeInt(this.encode(uidCodes, uids, uid));
+			buffer.out.writeInt(count);
+
+			for (int i = 0;i < count;i++) {
+				buffer.out.writeInt(codes[i]);
+				buffer.out.writeDouble(values[i]);
+			}
+
+			buffer.runs++;
+
+			if (buffer.bytes.size() >= BUFFER_SIZE)
+				this.spill(buffer);
+		}
+		catch (IOException e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Error spilling run to " + spillFile + ", " + file.getName() + " won't be written", e);
+
+			error = e;
+		}
+	}
+
+	/**
+	 * Appends the runs held by a buffer to the spill file, emptying it.
+	 */
+	protected synchronized void spill(RunBuffer buffer) throws IOException {
+		if (buffer.runs == 0)
+			return;
+
+		if (spill == null)
+			spill = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+
+		buffer.out.flush();
+		buffer.bytes.writeTo(spill);
+		runCount += buffer.runs;
+
+		buffer.bytes.reset();
+		buffer.runs = 0;
+	}
+
+	@Override
+	public synchronized void write(DataSet data) throws IOException {
+		if (error != null)
+			throw new IOException("Unable to write " + file.getName() + ", spilling runs failed.", error);
+
+		// No runs are being added while the data set is written, so every buffer can be emptied
+		for (RunBuffer buffer : buffers)
+			this.spill(buffer);
+
+		if (spill != null) {
+			spill.close();
+			spill = null;
+		}
+
+		final List<String> groupUids = Lists.newArrayList(data.getGroups().keySet());
+		final List<String> headerNames = Lists.newArrayList(data.getHeaders());
+		final int groupCount = groupUids.size();
+
+		// Dictionary encode the iteration variables of each set of parameters
+		final Map<String, Map<String, Integer>> variables = Maps.newLinkedHashMap();
+		final List<Map<String, String>> groupVariables = Lists.newArrayListWithCapacity(groupCount);
+
+		for (String uid : groupUids) {
+			final Map<String, String> vars = parseIterationVars(uid);
+			for (Map.Entry<String, String> var : vars.entrySet()) {
+				Map<String, Integer> values = variables.get(var.getKey());
+				if (values == null) {
+					values = Maps.newLinkedHashMap();
+					variables.put(var.getKey(), values);
+				}
+
+				if (!values.containsKey(var.getValue()))
+					values.put(var.getValue(), values.size());
+			}
+
+			groupVariables.add(vars);
+		}
+
+		final List<Column> columns = Lists.newArrayList();
+		long offset = 8;
+
+		RandomAccessFile out = null;
+
+		try {
+			out = new RandomAccessFile(file, "rw");
+			out.setLength(0);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			final FileChannel channel = out.getChannel();
+
+			// The group columns are small, so each is built in memory and written in one go
+			for (Map.Entry<String, Map<String, Integer>> var : variables.entrySet()) {
+				final ByteBuffer buffer = ByteBuffer.allocate(4 * groupCount);
+				for (Map<String, String> vars : groupVariables) {
+					final String value = vars.get(var.getKey());
+					buffer.putInt(value == null ? -1 : var.getValue().get(value));
+				}
+
+				offset = this.writeColumn(channel, columns, new Column("group." + var.getKey(), Column.INT, offset, groupCount), buffer);
+			}
+
+			for (String header : headerNames) {
+				final List<Object> names = Lists.newArrayList();
+				names.add(header + ".mean");
+				names.add(header + ".stddev");
+				names.add(header + ".count");
+				data.getSummary(header).addColumns(header, names);
+
+				final ByteBuffer[] buffers = new ByteBuffer[names.size()];
+				for (int i = 0;i < buffers.length;i++)
+					buffers[i] = ByteBuffer.allocate(8 * groupCount);
+
+				for (SortedMap<String, RunningStatistics> map : data.getGroups().values()) {
+					final RunningStatistics stats = map.get(header);
+
+					final List<Object> values = Lists.newArrayList();
+					values.add(stats == null ? Double.NaN : stats.getMean());
+					values.add(stats == null ? Double.NaN : stats.getStandardDeviation());
+					values.add(stats == null ? 0.0 : (double) stats.getN());
+					data.getSummary(header).addValues(stats, values);
+
+					for (int i = 0;i < buffers.length;i++)
+						buffers[i].putDouble(((Number) values.get(i)).doubleValue());
+				}
+
+				for (int i = 0;i < buffers.length;i++)
+					offset = this.writeColumn(channel, columns, new Column("group." + names.get(i), Column.DOUBLE, offset, groupCount), buffers[i]);
+			}
+
+			// The run columns are mapped and filled in from the spilled runs in a single pass
+			final Column groupColumn = new Column("run.group", Column.INT, offset, runCount);
+			columns.add(groupColumn);
+			offset = align(offset + 4L * runCount);
+
+			final MappedByteBuffer groups = channel.map(FileChannel.MapMode.READ_WRITE, groupColumn.offset, 4L * runCount);
+			final MappedByteBuffer[] runColumns = new MappedByteBuffer[headerNames.size()];
+
+			for (int i = 0;i < runColumns.length;i++) {
+				final Column column = new Column("run." + headerNames.get(i), Column.DOUBLE, offset, runCount);
+				columns.add(column);
+				offset = align(offset + 8L * runCount);
+
+				runColumns[i] = channel.map(FileChannel.MapMode.READ_WRITE, column.offset, 8L * runCount);
+				for (int run = 0;run < runCount;run++)
+					runColumns[i].putDouble(run * 8, Double.NaN);
+			}
+
+			this.fillRuns(groupUids, headerNames, groups, runColumns);
+
+			groups.force();
+			for (MappedByteBuffer column : runColumns)
+				column.force();
+
+			// Finally the footer, which says where everything is
+			channel.position(offset);
+
+			final DataOutputStream footer = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			footer.writeInt(groupCount);
+			footer.writeInt(runCount);
+
+			footer.writeInt(groupUids.size());
+			for (String uid : groupUids)
+				footer.writeUTF(uid);
+
+			footer.writeInt(headerNames.size());
+			for (String header : headerNames)
+				footer.writeUTF(header);
+
+			footer.writeInt(variables.size());
+			for (Map.Entry<String, Map<String, Integer>> var : variables.entrySet()) {
+				footer.writeUTF(var.getKey());
+				footer.writeInt(var.getValue().size());
+				for (String value : var.getValue().keySet())
+					footer.writeUTF(value);
+			}
+
+			footer.writeInt(columns.size());
+			for (Column column : columns) {
+				footer.writeUTF(column.name);
+				footer.writeByte(column.type);
+				footer.writeLong(column.offset);
+				footer.writeInt(column.length);
+			}
+
+			footer.writeLong(offset);
+			footer.writeInt(MAGIC);
+			footer.flush();
+		}
+		finally {
+			if (out != null)
+				out.close();
+
+			spillFile.delete();
+		}
+	}
+
+	/**
+	 * Reads back the spilled runs, placing each value into its column.
+	 */
+	protected void fillRuns(List<String> groupUids, List<String> headerNames, MappedByteBuffer groups, MappedByteBuffer[] runColumns) throws IOException {
+		if (runCount == 0)
+			return;
+
+		final Map<String, Integer> groupIndexes = Maps.newHashMap();
+		for (int i = 0;i < groupUids.size();i++)
+			groupIndexes.put(groupUids.get(i), i);
+
+		final Map<String, Integer> headerIndexes = Maps.newHashMap();
+		for (int i = 0;i < headerNames.size();i++)
+			headerIndexes.put(headerNames.get(i), i);
+
+		// Translate the codes used while spilling into column indexes
+		final int[] groupForUid = new int[uids.size()];
+		for (int i = 0;i < groupForUid.length;i++) {
+			final Integer index = groupIndexes.get(uids.get(i));
+			groupForUid[i] = index == null ? -1 : index;
+		}
+
+		final int[] columnForHeader = new int[headers.size()];
+		for (int i = 0;i < columnForHeader.length;i++) {
+			final Integer index = headerIndexes.get(headers.get(i));
+			columnForHeader[i] = index == null ? -1 : index;
+		}
+
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+
+		try {
+			for (int run = 0;run < runCount;run++) {
+				groups.putInt(run * 4, groupForUid[in.readInt()]);
+
+				final int count = in.readInt();
+				for (int i = 0;i < count;i++) {
+					final int column = columnForHeader[in.readInt()];
+					final double value = in.readDouble();
+
+					if (column >= 0)
+						runColumns[column].putDouble(run * 8, value);
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	protected long writeColumn(FileChannel channel, List<Column> columns, Column column, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+
+		long position = column.offset;
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+
+		columns.add(column);
+		return align(position);
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/**
+	 * Returns the code of a value in a dictionary, only locking the sink when a new value is added.
+	 */
+	private int encode(ConcurrentMap<String, Integer> codes, List<String> values, String value) {
+		final Integer code = codes.get(value);
+		if (code != null)
+			return code;
+
+		synchronized (this) {
+			Integer added = codes.get(value);
+			if (added == null) {
+				added = values.size();
+				values.add(value);
+				codes.put(value, added);
+			}
+
+			return added;
+		}
+	}
+
+	/**
+	 * Splits iterationvars such as "$N=10, $churn=0.5" into each variable and its value.
+	 */
+	public static Map<String, String> parseIterationVars(String uid) {
+		final Map<String, String> vars = Maps.newLinkedHashMap();
+
+		String unquoted = uid.trim();
+		if (unquoted.length() >= 2 && unquoted.startsWith("\"") && unquoted.endsWith("\""))
+			unquoted = unquoted.substring(1, unquoted.length() - 1);
+
+		for (String part : unquoted.split(",")) {
+			final int separator = part.indexOf('=');
+			if (separator <= 0)
+				continue;
+
+			vars.put(part.substring(0, separator).trim(), part.substring(separator + 1).trim());
+		}
+
+		return vars;
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnarSink(file = '" + file.getName() + "';)";
+	}
+
+	/**
+	 * The runs encoded by a single thread which haven't been spilled yet.
+	 */
+	protected static class RunBuffer {
+
+		protected final ByteArrayOutputStream bytes;
+		protected final DataOutputStream out;
+		protected int runs;
+
+		public RunBuffer() {
+			bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+			out = new DataOutputStream(bytes);
+			runs = 0;
+		}
+	}
+
+	protected static class Column {
+
+		public static final byte INT = 'I';
+		public static final byte DOUBLE = 'D';
+
+		protected final String name;
+		protected final byte type;
+		protected final long offset;
+		protected final int length;
+
+		public Column(String name, byte type, long offset, int length) {
+			this.name = name;
+			this.type = type;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
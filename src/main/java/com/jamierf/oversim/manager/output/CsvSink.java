@@ -0,0 +1,100 @@
+package com.jamierf.oversim.manager.output;
+
+import com.google.common.collect.Lists;
+import com.jamierf.oversim.manager.DataSet;
+import com.jamierf.oversim.manager.stats.RunningStatistics;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Writes a row for each set of parameters, with the mean and standard deviation of each scalar plus any extra
+ * summary statistics wanted for it.
+ */
+public class CsvSink implements DataSink {
+
+	protected final File file;
+
+	public CsvSink(File file) {
+		this.file = file;
+	}
+
+	@Override
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public void addRun(String uid, SortedMap<String, String> scalars) {
+		// Only the statistics of the data set are written
+	}
+
+	@Override
+	public void write(DataSet data) throws IOException {
+		PrintWriter out = null;
+
+		try {
+			final List<Object> row = Lists.newLinkedList();
+
+			out = new PrintWriter(new FileWriter(file), true);
+
+			// Write the header
+			row.clear();
+			row.add("uid");
+
+			for (String header : data.getHeaders()) {
+				row.add(header + ".mean");
+				row.add(header + ".stddev");
+
+				data.getSummary(header).addColumns(header, row);
+			}
+
+			out.println(StringUtils.join(row, ','));
+
+			// Output the summary statistics of each set
+			for (Map.Entry<String, SortedMap<String, RunningStatistics>> entry : data.getGroups().entrySet()) {
+				final String uid = entry.getKey();
+				final SortedMap<String, RunningStatistics> map = entry.getValue();
+
+				if (map.isEmpty()) {
+					continue;
+				}
+
+				// Output all the statistics into a row
+				row.clear();
+				row.add(uid.replaceAll(",", ""));
+
+				for (String header : data.getHeaders()) {
+					final RunningStatistics stats = map.get(header);
+					if (stats == null) {
+						row.add(Double.NaN);
+						row.add(Double.NaN);
+					}
+					else {
+						row.add(stats.getMean());
+						row.add(stats.getStandardDeviation());
+					}
+
+					data.getSummary(header).addValues(stats, row);
+				}
+
+				out.println(StringUtils.join(row, ','));
+			}
+		}
+		finally {
+			if (out != null)
+				out.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CsvSink(file = '" + file.getName() + "';)";
+	}
+}
@@ -0,0 +1,54 @@
+package com.jamierf.oversim.manager.output;
+
+import com.jamierf.oversim.manager.DataSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SortedMap;
+
+/**
+ * Somewhere the results of a config are written once all its runs are complete.
+ *
+ * A sink attached to a data set also sees each run as it is merged, for formats which keep more than the
+ * statistics of each set of parameters.
+ */
+public interface DataSink {
+
+	public static enum Type {
+		CSV("csv"),
+		// Dictionary encoded columns of every run and every set of parameters, read back with ColumnarReader
+		COLUMNAR("columns");
+
+		private final String extension;
+
+		private Type(String extension) {
+			this.extension = extension;
+		}
+
+		public String getExtension() {
+			return extension;
+		}
+
+		public DataSink create(File file) {
+			switch (this) {
+				case COLUMNAR:
+					return new ColumnarSink(file);
+				default:
+					return new CsvSink(file);
+			}
+		}
+	};
+
+	public File getFile();
+
+	/**
+	 * Called with the scalars of each run as it is merged into the data set. May be called from several threads
+	 * at once.
+	 */
+	public void addRun(String uid, SortedMap<String, String> scalars);
+
+	/**
+	 * Writes out the complete data set, which won't change while this is called.
+	 */
+	public void write(DataSet data) throws IOException;
+}
@@ -0,0 +1,61 @@
+package com.jamierf.oversim.manager.remote;
+
+import com.jamierf.oversim.manager.Manager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Accepts connections from remote workers, handing each of them off to a connection of its own which feeds it
+ * runs from the manager.
+ */
+public class Coordinator extends Thread {
+
+	private static final Logger logger = LoggerFactory.getLogger(Coordinator.class);
+
+	protected final Manager manager;
+	protected final ServerSocket server;
+
+	public Coordinator(Manager manager, int port) throws IOException {
+		this.manager = manager;
+
+		server = new ServerSocket(port);
+
+		super.setDaemon(true);
+		super.setName("Coordinator(" + server.getLocalPort() + ")");
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	@Override
+	public void run() {
+		manager.println(this + " listening for workers.");
+
+		while (!server.isClosed()) {
+			try {
+				final Socket socket = server.accept();
+
+				final WorkerConnection connection = new WorkerConnection(manager, socket);
+				connection.start();
+			}
+			catch (IOException e) {
+				if (logger.isWarnEnabled() && !server.isClosed())
+					logger.warn("Error accepting worker", e);
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		server.close();
+	}
+
+	@Override
+	public String toString() {
+		return super.getName();
+	}
+}
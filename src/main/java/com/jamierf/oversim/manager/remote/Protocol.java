@@ -0,0 +1,71 @@
+package com.jamierf.oversim.manager.remote;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The messages passed between a coordinator and its workers.
+ *
+ * Every message starts with a single type byte, followed by its fields:
+ * <pre>
+ * worker -> coordinator
+ *   HELLO      version (int), name (UTF)
+ *   REQUEST    -
+ *   HEARTBEAT  -
+ *   RESULT     run id (int), success (boolean), iterationvars (UTF, empty if unknown), scalars and vector aggregates (map)
+ *
+ * coordinator -> worker
+ *   WELCOME    heartbeat interval in ms (int), wanted scalars (int count, UTF each), wanted vectors (int count, UTF each)
+ *   HEARTBEAT  -
+ *   RUN        config file (UTF), config name (UTF), id (UTF), run id (int)
+ * </pre>
+ * A map is an int count followed by a UTF key and UTF value for each entry.
+ *
+ * Each side assumes the other is dead once it has heard nothing for three heartbeat intervals. Workers send
+ * heartbeats throughout, the coordinator only while a worker is waiting for a run, as that is the only time the
+ * worker reads.
+ */
+public final class Protocol {
+
+	public static final int VERSION = 3;
+	public static final int HEARTBEAT_INTERVAL = 5000;
+
+	public static final byte HELLO = 1;
+	public static final byte WELCOME = 2;
+	public static final byte REQUEST = 3;
+	public static final byte RUN = 4;
+	public static final byte HEARTBEAT = 5;
+	public static final byte RESULT = 6;
+
+	// The number of heartbeat intervals without hearing anything before the other side is assumed dead
+	public static final int MISSED_HEARTBEATS = 3;
+
+	public static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+		out.writeInt(map.size());
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeUTF(entry.getValue());
+		}
+	}
+
+	public static SortedMap<String, String> readMap(DataInputStream in) throws IOException {
+		final SortedMap<String, String> map = new TreeMap<String, String>();
+
+		final int count = in.readInt();
+		for (int i = 0;i < count;i++)
+			map.put(in.readUTF(), in.readUTF());
+
+		return map;
+	}
+
+	public static void expect(byte expected, byte actual) throws IOException {
+		if (expected != actual)
+			throw new IOException("Protocol error, expected message " + expected + " but received " + actual);
+	}
+
+	private Protocol() { }
+}
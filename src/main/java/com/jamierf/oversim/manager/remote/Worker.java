@@ -0,0 +1,234 @@
+package com.jamierf.oversim.manager.remote;
+
+import com.jamierf.oversim.manager.SimulationConfig;
+import com.jamierf.oversim.manager.runnable.SimulationData;
+import com.jamierf.oversim.manager.runnable.SimulationRun;
+import com.jamierf.oversim.manager.stats.SummarySpec;
+import com.jamierf.oversim.manager.util.ScalarExtractor;
+import com.jamierf.oversim.manager.util.VectorExtractor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The remote side of a coordinator connection. Repeatedly asks the coordinator for a run, runs it locally, and
+ * sends back the parsed scalars. Heartbeats are sent throughout so the coordinator knows the run is still alive.
+ * If the coordinator goes quiet for several heartbeat intervals while we wait for a run, it is assumed dead and
+ * the worker exits.
+ */
+public class Worker extends Thread {
+
+	private static final Logger logger = LoggerFactory.getLogger(Worker.class);
+
+	protected final String host;
+	protected final int port;
+	protected final File workingDir;
+	protected final File overSim;
+	protected final File resultRootDir;
+	protected final boolean compressLogs;
+	protected final Map<String, SimulationConfig> configs;
+
+	public Worker(String name, String host, int port, File workingDir, File overSim, File resultRootDir, boolean compressLogs) {
+		this (name, host, port, workingDir, overSim, resultRootDir, compressLogs, new HashMap<String, SimulationConfig>());
+	}
+
+	/**
+	 * Creates a worker sharing the given map of configs with the other workers of this process, so each config is
+	 * only set up once.
+	 */
+	public Worker(String name, String host, int port, File workingDir, File overSim, File resultRootDir, boolean compressLogs, Map<String, SimulationConfig> configs) {
+		this.host = host;
+		this.port = port;
+		this.workingDir = workingDir;
+		this.overSim = overSim;
+		this.resultRootDir = resultRootDir;
+		this.compressLogs = compressLogs;
+		this.configs = configs;
+
+		super.setName(name);
+	}
+
+	@Override
+	public void run() {
+		Socket socket = null;
+		ScheduledExecutorService heartbeat = null;
+
+		try {
+			socket = new Socket(host, port);
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(Protocol.HEARTBEAT_INTERVAL * Protocol.MISSED_HEARTBEATS);
+
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			synchronized (out) {
+				out.writeByte(Protocol.HELLO);
+				out.writeInt(Protocol.VERSION);
+				out.writeUTF(super.getName());
+				out.flush();
+			}
+
+			Protocol.expect(Protocol.WELCOME, in.readByte());
+			final int interval = in.readInt();
+
+			// The coordinator heartbeats at the same interval while we wait for a run
+			socket.setSoTimeout(interval * Protocol.MISSED_HEARTBEATS);
+
+			final String[] wantedScalars = new String[in.readInt()];
+			for (int i = 0;i < wantedScalars.length;i++)
+				wantedScalars[i] = in.readUTF();
+
+			final ScalarExtractor extractor = new ScalarExtractor(wantedScalars);
+
+			final String[] wantedVectors = new String[in.readInt()];
+			for (int i = 0;i < wantedVectors.length;i++)
+				wantedVectors[i] = in.readUTF();
+
+			final VectorExtractor vectorExtractor = wantedVectors.length > 0 ? new VectorExtractor(wantedVectors) : null;
+
+			if (logger.isInfoEnabled())
+				logger.info(this + " connected to " + host + ":" + port);
+
+			// Keep the connection alive while we're busy running a simulation
+			heartbeat = Executors.newSingleThreadScheduledExecutor();
+			heartbeat.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						synchronized (out) {
+							out.writeByte(Protocol.HEARTBEAT);
+							out.flush();
+						}
+					}
+					catch (IOException e) {
+						// The main loop will notice the connection has gone
+					}
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+
+			while (true) {
+				synchronized (out) {
+					out.writeByte(Protocol.REQUEST);
+					out.flush();
+				}
+
+				Protocol.expect(Protocol.RUN, readMessage(in));
+
+				final String file = in.readUTF();
+				final String name = in.readUTF();
+				final String id = in.readUTF();
+				final int runId = in.readInt();
+
+				final Map<String, String> attributes = new HashMap<String, String>();
+				final SortedMap<String, String> scalars = new TreeMap<String, String>();
+
+				boolean success = false;
+
+				// Anything going wrong with this run is reported as a failure, the worker carries on with the next
+				try {
+					final SimulationConfig config = this.getConfig(file, name, id);
+					final SimulationRun run = new SimulationRun(runId, workingDir, overSim, config, compressLogs);
+
+					if (logger.isInfoEnabled())
+						logger.info(this + " starting " + run);
+
+					run.run();
+
+					final File sca = new File(config.getResultDir(), config.getName() + "-" + runId + ".sca");
+					if (!sca.exists())
+						throw new FileNotFoundException("Unable to find scalar results for: " + config.getName() + "(" + runId + ")");
+
+					extractor.extract(sca, attributes, scalars);
+					if (vectorExtractor != null)
+						SimulationData.extractVectors(vectorExtractor, config, runId, scalars);
+
+					success = true;
+				}
+				catch (IOException e) {
+					if (logger.isWarnEnabled())
+						logger.warn("Error processing data", e);
+				}
+				catch (RuntimeException e) {
+					if (logger.isWarnEnabled())
+						logger.warn(this + " failed to run " + name + "-" + id + "(" + runId + ")", e);
+				}
+
+				final String uid = attributes.get("iterationvars");
+
+				synchronized (out) {
+					out.writeByte(Protocol.RESULT);
+					out.writeInt(runId);
+					out.writeBoolean(success);
+					out.writeUTF(uid == null ? "" : uid);
+					Protocol.writeMap(out, success ? scalars : Collections.<String, String>emptyMap());
+					out.flush();
+				}
+			}
+		}
+		catch (EOFException e) {
+			if (logger.isInfoEnabled())
+				logger.info(this + " disconnected, the coordinator has finished.");
+		}
+		catch (SocketTimeoutException e) {
+			if (logger.isErrorEnabled())
+				logger.error(this + " missed the heartbeats of the coordinator, assuming it is dead.");
+		}
+		catch (IOException e) {
+			if (logger.isErrorEnabled())
+				logger.error(this + " lost its connection to the coordinator", e);
+		}
+		finally {
+			if (heartbeat != null)
+				heartbeat.shutdownNow();
+
+			try {
+				if (socket != null)
+					socket.close();
+			}
+			catch (IOException e) { }
+		}
+	}
+
+	/**
+	 * Returns the type of the next message, skipping any heartbeats.
+	 */
+	private static byte readMessage(DataInputStream in) throws IOException {
+		byte type;
+		while ((type = in.readByte()) == Protocol.HEARTBEAT);
+
+		return type;
+	}
+
+	/**
+	 * Returns a local config matching the one on the coordinator, so results land in the same relative place.
+	 */
+	private SimulationConfig getConfig(String file, String name, String id) throws IOException {
+		final String key = name + "-" + id;
+
+		synchronized (configs) {
+			SimulationConfig config = configs.get(key);
+			if (config == null) {
+				config = new SimulationConfig(file, name, resultRootDir, id, Collections.<String, SummarySpec>emptyMap());
+				configs.put(key, config);
+			}
+
+			return config;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return super.getName();
+	}
+}
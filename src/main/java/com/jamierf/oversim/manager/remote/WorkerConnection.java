@@ -0,0 +1,193 @@
+package com.jamierf.oversim.manager.remote;
+
+import com.jamierf.oversim.manager.Manager;
+import com.jamierf.oversim.manager.SimulationConfig;
+import com.jamierf.oversim.manager.runnable.Run;
+import com.jamierf.oversim.manager.runnable.SimulationRun;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.SortedMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The coordinator side of a single remote worker. Takes a run from the manager each time the worker asks for
+ * one, and reports the results back. If the worker misses its heartbeats or disconnects, the run it was given
+ * goes back to the front of the queue. While the worker waits for a run, heartbeats are sent to it in turn.
+ */
+public class WorkerConnection extends Thread {
+
+	private static final Logger logger = LoggerFactory.getLogger(WorkerConnection.class);
+
+	protected final Manager manager;
+	protected final Socket socket;
+	protected volatile SimulationRun current;
+	protected long currentStartTime;
+
+	public WorkerConnection(Manager manager, Socket socket) {
+		this.manager = manager;
+		this.socket = socket;
+
+		super.setDaemon(true);
+		super.setName("WorkerConnection(" + socket.getRemoteSocketAddress() + ")");
+	}
+
+	@Override
+	public void run() {
+		ScheduledExecutorService heartbeat = null;
+
+		try {
+			// A worker which misses several heartbeats in a row is assumed dead
+			socket.setSoTimeout(Protocol.HEARTBEAT_INTERVAL * Protocol.MISSED_HEARTBEATS);
+
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			Protocol.expect(Protocol.HELLO, in.readByte());
+			if (in.readInt() != Protocol.VERSION)
+				throw new IOException("Worker protocol version mismatch.");
+
+			super.setName("WorkerConnection(" + in.readUTF() + ")");
+			manager.println(this + " connected.");
+
+			final String[] wantedScalars = manager.getWantedScalars();
+			final String[] wantedVectors = manager.getWantedVectors();
+
+			out.writeByte(Protocol.WELCOME);
+			out.writeInt(Protocol.HEARTBEAT_INTERVAL);
+			out.writeInt(wantedScalars.length);
+			for (String scalar : wantedScalars)
+				out.writeUTF(scalar);
+			out.writeInt(wantedVectors.length);
+			for (String vector : wantedVectors)
+				out.writeUTF(vector);
+
+			out.flush();
+
+			// Let the worker know we're still here while it waits for a run, it doesn't read while running one
+			heartbeat = Executors.newSingleThreadScheduledExecutor();
+			heartbeat.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					if (current != null)
+						return;
+
+					try {
+						synchronized (out) {
+							out.writeByte(Protocol.HEARTBEAT);
+							out.flush();
+						}
+					}
+					catch (IOException e) {
+						// The main loop will notice the connection has gone
+					}
+				}
+			}, Protocol.HEARTBEAT_INTERVAL, Protocol.HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+
+			while (true) {
+				final byte type = in.readByte();
+
+				switch (type) {
+					case Protocol.REQUEST: {
+						if (current != null)
+							throw new IOException("Worker requested a run while still running " + current);
+
+						this.dispatch(out);
+						break;
+					}
+
+					case Protocol.HEARTBEAT: {
+						break;
+					}
+
+					case Protocol.RESULT: {
+						this.receive(in);
+						break;
+					}
+
+					default: {
+						throw new IOException("Protocol error, unexpected message " + type);
+					}
+				}
+			}
+		}
+		catch (SocketTimeoutException e) {
+			manager.println(this + " missed its heartbeats.");
+		}
+		catch (EOFException e) {
+			manager.println(this + " disconnected.");
+		}
+		catch (Exception e) {
+			if (logger.isWarnEnabled())
+				logger.warn(this + " failed", e);
+		}
+		finally {
+			if (heartbeat != null)
+				heartbeat.shutdownNow();
+
+			try {
+				socket.close();
+			}
+			catch (IOException e) { }
+
+			// Whatever the worker was doing needs to be done by someone else
+			if (current != null) {
+				manager.requeue(current);
+				current = null;
+			}
+		}
+	}
+
+	private void dispatch(DataOutputStream out) throws IOException, InterruptedException {
+		final Run run = manager.poll();
+		if (!(run instanceof SimulationRun)) {
+			// Only simulations are sent out, put anything else back
+			manager.requeue(run);
+			return;
+		}
+
+		current = (SimulationRun) run;
+		currentStartTime = System.currentTimeMillis();
+
+		manager.started(this, current);
+
+		final SimulationConfig config = current.getConfig();
+
+		synchronized (out) {
+			out.writeByte(Protocol.RUN);
+			out.writeUTF(config.getFile());
+			out.writeUTF(config.getName());
+			out.writeUTF(config.getId());
+			out.writeInt(current.getRunId());
+			out.flush();
+		}
+	}
+
+	private void receive(DataInputStream in) throws IOException {
+		final int runId = in.readInt();
+		final boolean success = in.readBoolean();
+		final String uid = in.readUTF();
+		final SortedMap<String, String> scalars = Protocol.readMap(in);
+
+		if (current == null || current.getRunId() != runId)
+			throw new IOException("Worker returned results for a run it wasn't given: " + runId);
+
+		final SimulationRun run = current;
+		current = null;
+
+		if (success)
+			manager.completedRemotely(this, run, uid.isEmpty() ? null : uid, scalars, System.currentTimeMillis() - currentStartTime);
+		else
+			manager.failed(this, run);
+	}
+
+	@Override
+	public String toString() {
+		return super.getName();
+	}
+}
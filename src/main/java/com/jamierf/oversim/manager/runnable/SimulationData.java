@@ -1,32 +1,39 @@
 package com.jamierf.oversim.manager.runnable;
 
+import com.jamierf.oversim.manager.ParseCache;
 import com.jamierf.oversim.manager.SimulationConfig;
-import org.apache.commons.lang.StringUtils;
+import com.jamierf.oversim.manager.util.ScalarExtractor;
+import com.jamierf.oversim.manager.util.VectorExtractor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class SimulationData implements Run {
 
 	private static final Logger logger = LoggerFactory.getLogger(SimulationData.class);
 
 	protected final int runId;
-	protected final String[] wantedScalars;
+	protected final ScalarExtractor extractor;
+	protected final VectorExtractor vectorExtractor;
 	protected final SimulationConfig config;
+	protected volatile String uid;
+	protected volatile SortedMap<String, String> scalars;
 
-	public SimulationData(int runId, String[] wantedScalars, SimulationConfig config) {
+	public SimulationData(int runId, ScalarExtractor extractor, SimulationConfig config) {
+		this (runId, extractor, null, config);
+	}
+
+	public SimulationData(int runId, ScalarExtractor extractor, VectorExtractor vectorExtractor, SimulationConfig config) {
 		this.runId = runId;
-		this.wantedScalars = wantedScalars;
+		this.extractor = extractor;
+		this.vectorExtractor = vectorExtractor;
 		this.config = config;
 	}
 
@@ -35,6 +42,24 @@ public class SimulationData implements Run {
 		return config;
 	}
 
+	public int getRunId() {
+		return runId;
+	}
+
+	/**
+	 * Returns the iterationvars of the parsed run, or null if it hasn't been parsed successfully.
+	 */
+	public String getUid() {
+		return uid;
+	}
+
+	/**
+	 * Returns the scalars extracted from the run, or null if it hasn't been parsed successfully.
+	 */
+	public SortedMap<String, String> getScalars() {
+		return uid == null ? null : scalars;
+	}
+
 	@Override
 	public void run() {
 		try {
@@ -42,68 +67,74 @@ public class SimulationData implements Run {
 			if (!sca.exists())
 				throw new FileNotFoundException("Unable to find scalar results for: " + config.getName() + "(" + runId + ")");
 
-			final Map<String, String> attributes = new HashMap<String, String>();
 			final SortedMap<String, String> scalars = new TreeMap<String, String>();
+			final ParseCache cache = config.getParseCache();
 
-			BufferedReader in = null;
-
-			try {
-				in = new BufferedReader(new FileReader(sca));
+			// Unchanged results were extracted before, so only need reading from the cache
+			String iterationVars = cache == null ? null : this.readCache(cache, sca, scalars);
 
-				// Read the version number and check it is what we expect
-				final String version = in.readLine();
-				if (!version.matches("^version\\s2$"))
-					throw new RuntimeException("Unrecognised scalar result file version.");
+			if (iterationVars == null) {
+				final Map<String, String> attributes = new HashMap<String, String>();
 
-				@SuppressWarnings("unused")
-				final String runIdentifier = in.readLine();
+				extractor.extract(sca, attributes, scalars);
 
-				// Read the header
-				final Pattern headerPattern = Pattern.compile("^attr\\s+(\\w+)\\s+(.+)$");
-				for (String line;(line = in.readLine()) != null;) {
-					// When we reach an empty line it signifies the end of the header
-					if (line.isEmpty())
-						break;
+				if (vectorExtractor != null)
+					extractVectors(vectorExtractor, config, runId, scalars);
 
-					final Matcher m = headerPattern.matcher(line);
-					if (!m.find())
-						continue;
+				iterationVars = attributes.get("iterationvars");
 
-					attributes.put(m.group(1), m.group(2));
-				}
+				if (cache != null && iterationVars != null)
+					this.writeCache(cache, sca, iterationVars, scalars);
+			}
 
-				// Confirm we have iterationvars, otherwise we don't have anything to use as a unique identifier
-				if (!attributes.containsKey("iterationvars"))
-					throw new RuntimeException("Malformed scalar file, no iterationvars found: " + sca.getCanonicalPath());
+			// Hand the data back to the config, using the iterationvars as a unique identifier so that all repetitions are grouped together
+			this.scalars = scalars;
+			uid = iterationVars;
+			config.mergeData(uid, scalars);
+		}
+		catch (Exception e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Error processing data", e);
+		}
+	}
 
-				// Read the scalars
-				final Pattern scalarPattern = Pattern.compile("^scalar\\s+([\\w\\.\\d\\[\\]]+)\\s+\"(" + StringUtils.join(wantedScalars, '|') + ")\"\\s+(.+)$");
-				for (String line;(line = in.readLine()) != null;) {
-					// When we reach an empty line it signifies the end of the scalars
-					if (line.isEmpty())
-						break;
+	private String readCache(ParseCache cache, File sca, SortedMap<String, String> scalars) {
+		try {
+			return cache.get(sca, scalars);
+		}
+		catch (IOException e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Error reading parse cache", e);
 
-					final Matcher m = scalarPattern.matcher(line);
-					if (!m.find())
-						continue;
+			return null;
+		}
+	}
 
-					// Record the scalar
-					scalars.put(m.group(2), m.group(3));
-				}
+	private void writeCache(ParseCache cache, File sca, String iterationVars, SortedMap<String, String> scalars) {
+		try {
+			cache.put(sca, iterationVars, scalars);
+		}
+		catch (IOException e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Error writing parse cache", e);
+		}
+	}
 
-				// TODO: Handle any vectors?
-			}
-			finally {
-				if (in != null)
-					in.close();
-			}
+	/**
+	 * Adds the aggregates of the wanted vectors of a run to its scalars. A run without usable vector results keeps
+	 * its scalars, it is only missing the vector columns.
+	 */
+	public static void extractVectors(VectorExtractor vectorExtractor, SimulationConfig config, int runId, SortedMap<String, String> scalars) {
+		final File vec = new File(config.getResultDir(), config.getName() + "-" + runId + ".vec");
+		if (!vec.exists())
+			return;
 
-			// Hand the data back to the config, using the iterationvars as a unique identifier so that all repetitions are grouped together
-			config.mergeData(attributes.get("iterationvars"), scalars);
+		try {
+			vectorExtractor.extract(vec, new File(config.getResultDir(), config.getName() + "-" + runId + ".vci"), scalars);
 		}
-		catch (Exception e) {
+		catch (IOException e) {
 			if (logger.isWarnEnabled())
-				logger.warn("Error processing data", e);
+				logger.warn("Error processing vectors", e);
 		}
 	}
 
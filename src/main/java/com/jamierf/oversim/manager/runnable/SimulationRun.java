@@ -2,10 +2,12 @@ package com.jamierf.oversim.manager.runnable;
 
 import com.google.common.collect.ImmutableSet;
 import com.jamierf.oversim.manager.SimulationConfig;
+import com.jamierf.oversim.manager.util.ProcessMemory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.*;
+import java.io.File;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -14,18 +16,27 @@ import java.util.Set;
 public class SimulationRun implements Run {
 
 	private static final Logger logger = LoggerFactory.getLogger(SimulationRun.class);
-    private static final Set<String> RESULT_EXTENSIONS = ImmutableSet.of("sca", "vci", "vec");
+    public static final Set<String> RESULT_EXTENSIONS = ImmutableSet.of("sca", "vci", "vec");
 
 	protected final int runId;
 	protected final File workingDir;
 	protected final File overSim;
 	protected final SimulationConfig config;
+	protected final boolean compressLogs;
+	protected volatile int pid;
 
 	public SimulationRun(int runId, File workingDir, File overSim, SimulationConfig config) {
+		this (runId, workingDir, overSim, config, false);
+	}
+
+	public SimulationRun(int runId, File workingDir, File overSim, SimulationConfig config, boolean compressLogs) {
 		this.runId = runId;
 		this.workingDir = workingDir;
 		this.overSim = overSim;
 		this.config = config;
+		this.compressLogs = compressLogs;
+
+		pid = -1;
 	}
 
     @Override
@@ -37,6 +48,13 @@ public class SimulationRun implements Run {
 		return runId;
 	}
 
+	/**
+	 * Returns the operating system id of the running OverSim process, or -1 if it isn't running.
+	 */
+	public int getPid() {
+		return pid;
+	}
+
     public boolean resultsExist() {
         for (String ext : RESULT_EXTENSIONS) {
             final File file = new File(config.getResultDir(), String.format("%s-%d.%s", config.getName(), runId, ext));
@@ -48,14 +66,18 @@ public class SimulationRun implements Run {
         return true;
     }
 
+	private static boolean isUnix() {
+		final String osName = System.getProperty("os.name").toLowerCase();
+		return osName.contains("nix") || osName.contains("nux") || osName.contains("mac");
+	}
+
 	@Override
 	public void run() {
 		try {
 			final List<String> command = new LinkedList<String>();
 
-			final String osName = System.getProperty("os.name").toLowerCase();
 			// If we are on linux, unix, or mac then run using nice
-			if (osName.contains("nix") || osName.contains("nux") || osName.contains("mac")) {
+			if (isUnix()) {
 				command.add("nice");
             }
 
@@ -75,33 +97,30 @@ public class SimulationRun implements Run {
 			processBuilder.directory(workingDir);
 			processBuilder.redirectErrorStream(true);
 
-			final Process process = processBuilder.start();
+			// If we have a log directory then lets save a log, the output goes straight to the file without passing through us
+			if (config.getLogDir() == null) {
+				processBuilder.redirectOutput(new File(isUnix() ? "/dev/null" : "NUL"));
+			}
+			else if (compressLogs && isUnix()) {
+				final File logFile = new File(config.getLogDir(), "run" + runId + ".log.gz");
 
-			// If we have a log directory then lets save a log
-			if (config.getLogDir() != null) {
+				// Let the shell pipe the output through gzip, pipefail keeps the exit code of OverSim rather than gzip
+				command.addAll(0, Arrays.asList("bash", "-c", "set -o pipefail; \"$@\" 2>&1 | gzip -c > \"$OVERSIM_LOG\"", "oversim"));
+				processBuilder.environment().put("OVERSIM_LOG", logFile.getCanonicalPath());
+				processBuilder.redirectOutput(new File("/dev/null"));
+			}
+			else {
 				final File logFile = new File(config.getLogDir(), "run" + runId + ".log");
-
-				BufferedReader in = null;
-				PrintWriter out = null;
-
-				try {
-					in = new BufferedReader(new InputStreamReader(process.getInputStream()));
-					out = new PrintWriter(new FileWriter(logFile), true);
-
-					for (String line;(line = in.readLine()) != null;)
-						out.println(line);
-				}
-				finally {
-					if (in != null)
-						in.close();
-
-					if (out != null)
-						out.close();
-				}
+				processBuilder.redirectOutput(logFile);
 			}
 
-			// Wait for the process to end (if we were logging it already has, but thats fine)
+			final Process process = processBuilder.start();
+			pid = ProcessMemory.getPid(process);
+
+			// Wait for the process to end
 			final int result = process.waitFor();
+			pid = -1;
+
 			if (result != 0) {
 				throw new RuntimeException("OverSim run " + runId + " exited with result code: " + result);
             }
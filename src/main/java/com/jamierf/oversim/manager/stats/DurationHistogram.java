@@ -0,0 +1,134 @@
+package com.jamierf.oversim.manager.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in milliseconds, cheap enough to update from every thread on every run.
+ *
+ * Each power of two is split into 8 linear buckets, so any quantile is accurate to within about 6%, using a fixed
+ * 4KB however many values are recorded.
+ */
+public class DurationHistogram implements DurationHistogramMBean {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	protected final AtomicLongArray buckets;
+	protected final AtomicLong count;
+	protected final AtomicLong sum;
+	protected final AtomicLong min;
+	protected final AtomicLong max;
+
+	public DurationHistogram() {
+		buckets = new AtomicLongArray(bucketIndex(Long.MAX_VALUE) + 1);
+		count = new AtomicLong(0);
+		sum = new AtomicLong(0);
+		min = new AtomicLong(Long.MAX_VALUE);
+		max = new AtomicLong(Long.MIN_VALUE);
+	}
+
+	private static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long bucketLowerBound(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+
+		final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		final int sub = index % SUB_BUCKETS;
+
+		return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	public void record(long duration) {
+		if (duration < 0)
+			return;
+
+		buckets.incrementAndGet(bucketIndex(duration));
+		count.incrementAndGet();
+		sum.addAndGet(duration);
+
+		for (long current = min.get();duration < current;current = min.get()) {
+			if (min.compareAndSet(current, duration))
+				break;
+		}
+
+		for (long current = max.get();duration > current;current = max.get()) {
+			if (max.compareAndSet(current, duration))
+				break;
+		}
+	}
+
+	@Override
+	public long getMedian() {
+		return this.getQuantile(0.5);
+	}
+
+	@Override
+	public long get90thPercentile() {
+		return this.getQuantile(0.9);
+	}
+
+	@Override
+	public long get99thPercentile() {
+		return this.getQuantile(0.99);
+	}
+
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	@Override
+	public double getMean() {
+		final long n = count.get();
+		return n == 0 ? Double.NaN : (double) sum.get() / n;
+	}
+
+	@Override
+	public long getMin() {
+		return count.get() == 0 ? 0 : min.get();
+	}
+
+	@Override
+	public long getMax() {
+		return count.get() == 0 ? 0 : max.get();
+	}
+
+	/**
+	 * Returns an estimate of the given quantile, between 0 and 1, or 0 if nothing has been recorded.
+	 */
+	public long getQuantile(double q) {
+		final long n = count.get();
+		if (n == 0)
+			return 0;
+
+		final long rank = (long) Math.ceil(q * n);
+		if (rank >= n)
+			return this.getMax();
+
+		long seen = 0;
+
+		for (int i = 0;i < buckets.length();i++) {
+			seen += buckets.get(i);
+
+			// Report the middle of the bucket, kept within what has actually been seen
+			if (seen >= rank && seen > 0) {
+				final long lower = bucketLowerBound(i);
+				final long upper = i + 1 < buckets.length() ? bucketLowerBound(i + 1) - 1 : Long.MAX_VALUE;
+
+				return Math.max(this.getMin(), Math.min(this.getMax(), lower + (upper - lower) / 2));
+			}
+		}
+
+		return this.getMax();
+	}
+}
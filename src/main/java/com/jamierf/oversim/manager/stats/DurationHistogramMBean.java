@@ -0,0 +1,15 @@
+package com.jamierf.oversim.manager.stats;
+
+/**
+ * The attributes of a duration histogram published over JMX, all in milliseconds.
+ */
+public interface DurationHistogramMBean {
+
+	public long getCount();
+	public double getMean();
+	public long getMin();
+	public long getMax();
+	public long getMedian();
+	public long get90thPercentile();
+	public long get99thPercentile();
+}
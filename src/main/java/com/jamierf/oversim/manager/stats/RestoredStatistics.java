@@ -0,0 +1,50 @@
+package com.jamierf.oversim.manager.stats;
+
+/**
+ * Statistics restored from a summary of earlier statistics, giving the same answers without holding the values or
+ * sketch they were built from. More values can still be added, but the restored quantiles can't be brought up to
+ * date with them, so from then on no quantiles are known.
+ */
+public class RestoredStatistics extends RunningStatistics {
+
+	protected final double[] quantiles;
+	protected final double[] quantileValues;
+	protected boolean added;
+
+	public RestoredStatistics(long n, double mean, double m2, double min, double max, double[] quantiles, double[] quantileValues) {
+		this.n = n;
+		this.mean = mean;
+		this.m2 = m2;
+		this.min = min;
+		this.max = max;
+		this.quantiles = quantiles;
+		this.quantileValues = quantileValues;
+	}
+
+	@Override
+	public void addValue(double value) {
+		super.addValue(value);
+		added = true;
+	}
+
+	@Override
+	public void merge(RunningStatistics other) {
+		super.merge(other);
+
+		if (other.getN() > 0)
+			added = true;
+	}
+
+	@Override
+	public double getQuantile(double quantile) {
+		if (added)
+			return Double.NaN;
+
+		for (int i = 0;i < quantiles.length;i++) {
+			if (quantiles[i] == quantile)
+				return quantileValues[i];
+		}
+
+		return Double.NaN;
+	}
+}
@@ -0,0 +1,141 @@
+package com.jamierf.oversim.manager.stats;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.TDistributionImpl;
+
+/**
+ * Constant memory running statistics for a stream of values.
+ *
+ * The mean and second moment are updated using the same recurrences as commons-math SummaryStatistics, so
+ * the results are identical to collecting every value and summarising them afterwards.
+ */
+public class RunningStatistics {
+
+	protected long n;
+	protected double mean;
+	protected double m2;
+	protected double min;
+	protected double max;
+
+	public RunningStatistics() {
+		n = 0;
+		mean = Double.NaN;
+		m2 = Double.NaN;
+		min = Double.NaN;
+		max = Double.NaN;
+	}
+
+	public void addValue(double value) {
+		if (n == 0) {
+			mean = 0;
+			m2 = 0;
+			min = value;
+			max = value;
+		}
+
+		n++;
+
+		final double dev = value - mean;
+		final double nDev = dev / n;
+
+		mean += nDev;
+		m2 += (n - 1) * dev * nDev;
+
+		if (value < min || Double.isNaN(min))
+			min = value;
+
+		if (value > max || Double.isNaN(max))
+			max = value;
+	}
+
+	/**
+	 * Adds all the values summarised by other statistics to these, as if they had been added one by one, using
+	 * the pairwise update of Chan, Golub and LeVeque.
+	 */
+	public void merge(RunningStatistics other) {
+		if (other.n == 0)
+			return;
+
+		if (n == 0) {
+			n = other.n;
+			mean = other.mean;
+			m2 = other.m2;
+			min = other.min;
+			max = other.max;
+			return;
+		}
+
+		final long total = n + other.n;
+		final double delta = other.mean - mean;
+
+		mean += delta * other.n / total;
+		m2 += other.m2 + delta * delta * n * other.n / total;
+		n = total;
+
+		if (other.min < min)
+			min = other.min;
+
+		if (other.max > max)
+			max = other.max;
+	}
+
+	public long getN() {
+		return n;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getVariance() {
+		if (n == 0)
+			return Double.NaN;
+
+		if (n == 1)
+			return 0;
+
+		return m2 / (n - 1);
+	}
+
+	public double getStandardDeviation() {
+		return Math.sqrt(this.getVariance());
+	}
+
+	/**
+	 * Returns the half width of a t-distribution confidence interval of the mean at the given level (e.g. 0.95).
+	 */
+	public double getConfidenceHalfWidth(double level) {
+		if (n < 2)
+			return Double.NaN;
+
+		try {
+			final double t = new TDistributionImpl(n - 1).inverseCumulativeProbability(1 - (1 - level) / 2);
+			return t * this.getStandardDeviation() / Math.sqrt(n);
+		}
+		catch (MathException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Returns the sum of squared deviations from the mean.
+	 */
+	public double getSecondMoment() {
+		return m2;
+	}
+
+	/**
+	 * Returns an estimate of the given quantile, or NaN if these statistics don't keep track of quantiles.
+	 */
+	public double getQuantile(double quantile) {
+		return Double.NaN;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+}
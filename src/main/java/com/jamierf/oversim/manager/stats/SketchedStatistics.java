@@ -0,0 +1,32 @@
+package com.jamierf.oversim.manager.stats;
+
+/**
+ * Running statistics which also feed a quantile sketch, so quantiles can be estimated in bounded memory.
+ */
+public class SketchedStatistics extends RunningStatistics {
+
+	protected final TDigest digest;
+
+	public SketchedStatistics() {
+		digest = new TDigest();
+	}
+
+	@Override
+	public void addValue(double value) {
+		super.addValue(value);
+		digest.add(value);
+	}
+
+	@Override
+	public void merge(RunningStatistics other) {
+		super.merge(other);
+
+		if (other instanceof SketchedStatistics)
+			digest.merge(((SketchedStatistics) other).digest);
+	}
+
+	@Override
+	public double getQuantile(double quantile) {
+		return digest.quantile(quantile);
+	}
+}
@@ -0,0 +1,126 @@
+package com.jamierf.oversim.manager.stats;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The additional summary statistics to output for a single scalar, on top of the mean and standard deviation.
+ *
+ * Specified as a space separated list of options: <tt>median</tt> or <tt>pNN</tt> for a quantile (e.g. p95,
+ * p99.9), and <tt>ciNN</tt> for a t-distribution confidence interval of the mean (e.g. ci95).
+ */
+public class SummarySpec {
+
+	public static final SummarySpec NONE = new SummarySpec(Collections.<String>emptyList(), new double[0], Collections.<String>emptyList(), new double[0]);
+
+	private static final Pattern QUANTILE_PATTERN = Pattern.compile("^p(\\d{1,2}(?:\\.\\d+)?)$");
+	private static final Pattern INTERVAL_PATTERN = Pattern.compile("^ci(\\d{1,2}(?:\\.\\d+)?)$");
+
+	public static boolean isSpec(String options) {
+		for (String option : options.trim().split("\\s+")) {
+			if (!option.equals("median") && !QUANTILE_PATTERN.matcher(option).matches() && !INTERVAL_PATTERN.matcher(option).matches())
+				return false;
+		}
+
+		return true;
+	}
+
+	public static SummarySpec parse(String options) {
+		final List<String> quantileNames = Lists.newArrayList();
+		final List<Double> quantiles = Lists.newArrayList();
+		final List<String> intervalNames = Lists.newArrayList();
+		final List<Double> intervals = Lists.newArrayList();
+
+		for (String option : options.trim().split("\\s+")) {
+			if (option.equals("median")) {
+				quantileNames.add(option);
+				quantiles.add(0.5);
+				continue;
+			}
+
+			Matcher m = QUANTILE_PATTERN.matcher(option);
+			if (m.matches()) {
+				quantileNames.add(option);
+				quantiles.add(Double.parseDouble(m.group(1)) / 100);
+				continue;
+			}
+
+			m = INTERVAL_PATTERN.matcher(option);
+			if (m.matches()) {
+				intervalNames.add(option);
+				intervals.add(Double.parseDouble(m.group(1)) / 100);
+				continue;
+			}
+
+			throw new IllegalArgumentException("Unrecognised summary statistic: " + option);
+		}
+
+		return new SummarySpec(quantileNames, toArray(quantiles), intervalNames, toArray(intervals));
+	}
+
+	private static double[] toArray(List<Double> list) {
+		final double[] array = new double[list.size()];
+		for (int i = 0;i < array.length;i++)
+			array[i] = list.get(i);
+
+		return array;
+	}
+
+	private final List<String> quantileNames;
+	private final double[] quantiles;
+	private final List<String> intervalNames;
+	private final double[] intervals;
+
+	private SummarySpec(List<String> quantileNames, double[] quantiles, List<String> intervalNames, double[] intervals) {
+		this.quantileNames = quantileNames;
+		this.quantiles = quantiles;
+		this.intervalNames = intervalNames;
+		this.intervals = intervals;
+	}
+
+	public boolean needsSketch() {
+		return quantiles.length > 0;
+	}
+
+	public double[] getQuantiles() {
+		return quantiles.clone();
+	}
+
+	/**
+	 * Appends the names of the extra columns for the given header.
+	 */
+	public void addColumns(String header, List<Object> row) {
+		for (String name : quantileNames)
+			row.add(header + "." + name);
+
+		for (String name : intervalNames) {
+			row.add(header + "." + name + ".lower");
+			row.add(header + "." + name + ".upper");
+		}
+	}
+
+	/**
+	 * Appends the values of the extra columns from the given statistics, which may be null if there were none.
+	 */
+	public void addValues(RunningStatistics stats, List<Object> row) {
+		for (double quantile : quantiles)
+			row.add(stats == null ? Double.NaN : stats.getQuantile(quantile));
+
+		for (double interval : intervals) {
+			final double mean = stats == null ? Double.NaN : stats.getMean();
+			final double halfWidth = stats == null ? Double.NaN : stats.getConfidenceHalfWidth(interval);
+
+			row.add(mean - halfWidth);
+			row.add(mean + halfWidth);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SummarySpec(quantiles = " + quantileNames + "; intervals = " + intervalNames + ";)";
+	}
+}
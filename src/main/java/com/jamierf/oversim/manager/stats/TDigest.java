@@ -0,0 +1,207 @@
+package com.jamierf.oversim.manager.stats;
+
+import java.util.Arrays;
+
+/**
+ * A merging t-digest, a mergeable streaming sketch for estimating quantiles.
+ *
+ * Values are buffered and periodically merged into a sorted list of weighted centroids. Centroids near the
+ * tails are kept small so extreme quantiles stay accurate, and the number of centroids is bounded by the
+ * compression regardless of how many values are added.
+ */
+public class TDigest {
+
+	public static final double DEFAULT_COMPRESSION = 100;
+
+	protected final double compression;
+
+	protected double[] means;
+	protected double[] weights;
+	protected int centroids;
+
+	private double[] scratchMeans;
+	private double[] scratchWeights;
+
+	protected final double[] buffer;
+	protected int buffered;
+
+	protected double totalWeight;
+	protected double min;
+	protected double max;
+
+	public TDigest() {
+		this (DEFAULT_COMPRESSION);
+	}
+
+	public TDigest(double compression) {
+		this.compression = compression;
+
+		// Any two neighbouring centroids span more than one unit of the scale function, which ranges from 0 to
+		// half the compression, so this is the most centroids we can ever produce
+		final int capacity = (int) Math.ceil(compression) + 2;
+
+		means = new double[capacity];
+		weights = new double[capacity];
+		centroids = 0;
+
+		scratchMeans = new double[capacity];
+		scratchWeights = new double[capacity];
+
+		buffer = new double[capacity * 5];
+		buffered = 0;
+
+		totalWeight = 0;
+		min = Double.NaN;
+		max = Double.NaN;
+	}
+
+	public void add(double value) {
+		if (Double.isNaN(value))
+			return;
+
+		if (buffered == buffer.length)
+			this.compress();
+
+		buffer[buffered++] = value;
+		totalWeight++;
+
+		if (value < min || Double.isNaN(min))
+			min = value;
+
+		if (value > max || Double.isNaN(max))
+			max = value;
+	}
+
+	/**
+	 * Adds all the values summarised by another digest to this one.
+	 */
+	public void merge(TDigest other) {
+		other.compress();
+		if (other.centroids == 0)
+			return;
+
+		this.compress();
+
+		totalWeight += other.totalWeight;
+
+		if (other.min < min || Double.isNaN(min))
+			min = other.min;
+
+		if (other.max > max || Double.isNaN(max))
+			max = other.max;
+
+		this.merge(other.means, other.weights, other.centroids);
+	}
+
+	public long size() {
+		return (long) totalWeight;
+	}
+
+	public double quantile(double q) {
+		if (q < 0 || q > 1)
+			throw new IllegalArgumentException("Quantile must be between 0 and 1: " + q);
+
+		this.compress();
+
+		if (centroids == 0)
+			return Double.NaN;
+
+		if (centroids == 1)
+			return means[0];
+
+		final double index = q * totalWeight;
+
+		// Between the minimum and the centre of the first centroid
+		if (index < weights[0] / 2)
+			return min + (means[0] - min) * index / (weights[0] / 2);
+
+		double centre = weights[0] / 2;
+		for (int i = 0;i < centroids - 1;i++) {
+			final double gap = (weights[i] + weights[i + 1]) / 2;
+			if (index <= centre + gap)
+				return means[i] + (means[i + 1] - means[i]) * (index - centre) / gap;
+
+			centre += gap;
+		}
+
+		// Between the centre of the last centroid and the maximum
+		final double last = weights[centroids - 1] / 2;
+		return means[centroids - 1] + (max - means[centroids - 1]) * Math.min(1, (index - centre) / last);
+	}
+
+	protected void compress() {
+		if (buffered == 0)
+			return;
+
+		Arrays.sort(buffer, 0, buffered);
+		this.merge(buffer, null, buffered);
+
+		buffered = 0;
+	}
+
+	/**
+	 * Merges a sorted list of centroids into our own, a null weights array means every weight is 1.
+	 */
+	private void merge(double[] incomingMeans, double[] incomingWeights, int count) {
+		int size = 0;
+		int i = 0;
+		int j = 0;
+
+		double weightSoFar = 0;
+		double kLeft = 0;
+
+		double currentMean = 0;
+		double currentWeight = 0;
+
+		while (i < centroids || j < count) {
+			final double mean;
+			final double weight;
+
+			// Take whichever centroid comes next in order
+			if (j == count || (i < centroids && means[i] <= incomingMeans[j])) {
+				mean = means[i];
+				weight = weights[i];
+				i++;
+			}
+			else {
+				mean = incomingMeans[j];
+				weight = incomingWeights == null ? 1 : incomingWeights[j];
+				j++;
+			}
+
+			// Merge into the current centroid if it stays within one unit of the scale function
+			if (currentWeight > 0 && this.scale((weightSoFar + currentWeight + weight) / totalWeight) - kLeft > 1) {
+				scratchMeans[size] = currentMean;
+				scratchWeights[size] = currentWeight;
+				size++;
+
+				weightSoFar += currentWeight;
+				kLeft = this.scale(weightSoFar / totalWeight);
+
+				currentWeight = 0;
+			}
+
+			currentWeight += weight;
+			currentMean += (mean - currentMean) * weight / currentWeight;
+		}
+
+		scratchMeans[size] = currentMean;
+		scratchWeights[size] = currentWeight;
+		size++;
+
+		// Swap the merged centroids in, keeping the old arrays as scratch space for the next merge
+		final double[] oldMeans = means;
+		final double[] oldWeights = weights;
+
+		means = scratchMeans;
+		weights = scratchWeights;
+		centroids = size;
+
+		scratchMeans = oldMeans;
+		scratchWeights = oldWeights;
+	}
+
+	private double scale(double q) {
+		return compression * (Math.asin(2 * Math.min(1, q) - 1) / Math.PI + 0.5) / 2;
+	}
+}
@@ -1,12 +1,15 @@
 package com.jamierf.oversim.manager.util;
 
 import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Set;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
@@ -17,41 +20,82 @@ import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.commons.compress.utils.IOUtils;
 
+import com.google.common.collect.Sets;
+
 public class DirectoryArchiver {
 
-	public static enum ArchiveType { TAR_GZIP, ZIP };
+	public static enum ArchiveType {
+		TAR_GZIP("tar.gz"),
+		// Compressed using every core, as a series of gzip members which standard tools read as one stream
+		TAR_GZIP_PARALLEL("tar.gz"),
+		ZIP("zip");
+
+		private final String extension;
+
+		private ArchiveType(String extension) {
+			this.extension = extension;
+		}
+
+		public String getExtension() {
+			return extension;
+		}
+	};
 
 	protected final ArchiveType type;
+	protected final int threadCount;
 
 	public DirectoryArchiver() {
 		this (ArchiveType.TAR_GZIP);
 	}
 
 	public DirectoryArchiver(ArchiveType type) {
+		this (type, Runtime.getRuntime().availableProcessors());
+	}
+
+	public DirectoryArchiver(ArchiveType type, int threadCount) {
 		this.type = type;
+		this.threadCount = threadCount;
+	}
+
+	public ArchiveType getType() {
+		return type;
 	}
 
 	public void compress(File directory, File archive) throws IOException {
-		ArchiveOutputStream out = null;
+		this.compress(directory, archive, null);
+	}
+
+	/**
+	 * Compresses a directory, leaving out anything the given filter doesn't accept.
+	 */
+	public void compress(File directory, File archive, FileFilter filter) throws IOException {
+		final Archive out = this.open(archive);
 
 		try {
-			out = createArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(archive)));
-			addFiletoArchive(out, directory, "");
+			out.addAll(directory, "", filter);
 		}
 		finally {
-			if (out != null) {
-				out.finish();
-				out.close();
-			}
+			out.close();
 		}
 	}
 
+	/**
+	 * Opens a new archive which files can be added to over time, until it is closed.
+	 */
+	public Archive open(File archive) throws IOException {
+		return new Archive(createArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(archive))));
+	}
+
 	private ArchiveOutputStream createArchiveOutputStream(OutputStream out) throws IOException {
 		switch (type) {
 			case TAR_GZIP: {
 				return new TarArchiveOutputStream(new GzipCompressorOutputStream(out));
 			}
 
+			case TAR_GZIP_PARALLEL: {
+				return new TarArchiveOutputStream(new ParallelGzipOutputStream(out, threadCount));
+			}
+
 			case ZIP: {
 				return new ZipArchiveOutputStream(out);
 			}
@@ -64,7 +108,8 @@ public class DirectoryArchiver {
 
 	private ArchiveEntry createArchiveEntry(File file, String name) throws IOException {
 		switch (type) {
-			case TAR_GZIP: {
+			case TAR_GZIP:
+			case TAR_GZIP_PARALLEL: {
 				return new TarArchiveEntry(file, name);
 			}
 
@@ -78,20 +123,34 @@ public class DirectoryArchiver {
 		}
 	}
 
-	private void addFiletoArchive(ArchiveOutputStream out, File file, String base) throws IOException {
-		final String name = base + file.getName();
+	public class Archive implements Closeable {
 
-		// Add the entry to the archive
-		out.putArchiveEntry(createArchiveEntry(file, name));
+		private final ArchiveOutputStream out;
+		private final Set<String> names;
 
-		if (file.isDirectory()) {
-			out.closeArchiveEntry();
+		private Archive(ArchiveOutputStream out) {
+			this.out = out;
+
+			names = Sets.newHashSet();
+		}
 
-			final File[] children = file.listFiles();
-			for (File child : children)
-				addFiletoArchive(out, child, name + "/");
+		public synchronized boolean contains(String name) {
+			return names.contains(name);
 		}
-		else {
+
+		/**
+		 * Adds a single file or directory entry, without any of the directory contents.
+		 */
+		public synchronized void add(File file, String name) throws IOException {
+			// Add the entry to the archive
+			out.putArchiveEntry(createArchiveEntry(file, name));
+			names.add(name);
+
+			if (file.isDirectory()) {
+				out.closeArchiveEntry();
+				return;
+			}
+
 			InputStream in = null;
 
 			try {
@@ -105,5 +164,35 @@ public class DirectoryArchiver {
 
 			out.closeArchiveEntry();
 		}
+
+		/**
+		 * Adds a file or directory including all of its contents, skipping anything that has already been added.
+		 */
+		public synchronized void addAll(File file, String base) throws IOException {
+			this.addAll(file, base, null);
+		}
+
+		/**
+		 * Adds a file or directory including all of its contents that the given filter accepts, skipping anything
+		 * that has already been added.
+		 */
+		public synchronized void addAll(File file, String base, FileFilter filter) throws IOException {
+			final String name = base + file.getName();
+
+			if (!names.contains(name))
+				this.add(file, name);
+
+			if (file.isDirectory()) {
+				final File[] children = filter == null ? file.listFiles() : file.listFiles(filter);
+				for (File child : children)
+					this.addAll(child, name + "/", filter);
+			}
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			out.finish();
+			out.close();
+		}
 	}
 }
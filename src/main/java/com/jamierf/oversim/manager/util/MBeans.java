@@ -0,0 +1,40 @@
+package com.jamierf.oversim.manager.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Publishes the live state of the manager over JMX, so a running sweep can be watched with jconsole or similar.
+ */
+public final class MBeans {
+
+	private static final Logger logger = LoggerFactory.getLogger(MBeans.class);
+	private static final String DOMAIN = "com.jamierf.oversim";
+
+	/**
+	 * Registers an object under the given type and name, replacing anything already registered there. Failing to
+	 * register is only logged, as nothing depends on it.
+	 */
+	public static void register(Object mbean, String type, String name) {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+
+			server.registerMBean(mbean, objectName);
+		}
+		catch (JMException e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Error registering " + type + " " + name + " with JMX", e);
+		}
+	}
+
+	private MBeans() { }
+}
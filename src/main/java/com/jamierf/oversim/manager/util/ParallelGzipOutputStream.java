@@ -0,0 +1,173 @@
+package com.jamierf.oversim.manager.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compresses on multiple threads, in the same way as pigz.
+ *
+ * The input is split into fixed size blocks which are each compressed as an independent gzip member, and the
+ * members are written out in order. A series of gzip members is itself a valid gzip stream, so the output can
+ * be read by any standard tool.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	private static final int BLOCK_SIZE = 1024 * 1024;
+
+	protected final OutputStream out;
+	protected final ExecutorService executor;
+	protected final int maxInFlight;
+	protected final Queue<Future<byte[]>> inFlight;
+
+	protected byte[] block;
+	protected int blockLength;
+	protected boolean closed;
+
+	public ParallelGzipOutputStream(OutputStream out, int threadCount) {
+		this.out = out;
+
+		executor = Executors.newFixedThreadPool(threadCount);
+		// Bound the memory used by only letting a couple of blocks per thread get ahead of the output
+		maxInFlight = threadCount * 2;
+		inFlight = new LinkedList<Future<byte[]>>();
+
+		block = new byte[BLOCK_SIZE];
+		blockLength = 0;
+		closed = false;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (blockLength == block.length)
+			this.submitBlock();
+
+		block[blockLength++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (blockLength == block.length)
+				this.submitBlock();
+
+			final int count = Math.min(length, block.length - blockLength);
+			System.arraycopy(bytes, offset, block, blockLength, count);
+
+			blockLength += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	private void submitBlock() throws IOException {
+		if (blockLength == 0)
+			return;
+
+		final byte[] data = block;
+		final int length = blockLength;
+
+		inFlight.add(executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return compress(data, length);
+			}
+		}));
+
+		block = new byte[BLOCK_SIZE];
+		blockLength = 0;
+
+		while (inFlight.size() >= maxInFlight)
+			this.writeMember();
+	}
+
+	private void writeMember() throws IOException {
+		try {
+			out.write(inFlight.remove().get());
+		}
+		catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while compressing.");
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Error compressing block", e.getCause());
+		}
+	}
+
+	/**
+	 * Writes any buffered data as a complete gzip member, so everything written so far can be decompressed.
+	 */
+	@Override
+	public void flush() throws IOException {
+		this.submitBlock();
+
+		while (!inFlight.isEmpty())
+			this.writeMember();
+
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+
+		closed = true;
+
+		try {
+			this.flush();
+		}
+		finally {
+			executor.shutdownNow();
+			out.close();
+		}
+	}
+
+	private static byte[] compress(byte[] data, int length) {
+		final ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+
+		// Header: magic, deflate, no flags, no mtime, no extra flags, unknown OS
+		member.write(new byte[] { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff }, 0, 10);
+
+		final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+
+			final byte[] buffer = new byte[64 * 1024];
+			while (!deflater.finished()) {
+				final int count = deflater.deflate(buffer);
+				member.write(buffer, 0, count);
+			}
+		}
+		finally {
+			deflater.end();
+		}
+
+		final CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+
+		// Trailer: CRC32 and uncompressed size, both little endian
+		writeInt(member, (int) crc.getValue());
+		writeInt(member, length);
+
+		return member.toByteArray();
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value) {
+		out.write(value & 0xff);
+		out.write((value >> 8) & 0xff);
+		out.write((value >> 16) & 0xff);
+		out.write((value >> 24) & 0xff);
+	}
+}
@@ -0,0 +1,153 @@
+package com.jamierf.oversim.manager.util;
+
+import com.google.common.collect.Maps;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Reads process and system memory usage from /proc. Every method degrades to returning -1 on systems without
+ * a Linux style /proc.
+ */
+public class ProcessMemory {
+
+	private static final File PROC = new File("/proc");
+
+	public static boolean isSupported() {
+		return new File(PROC, "meminfo").isFile();
+	}
+
+	/**
+	 * Returns the number of bytes available for starting new processes without swapping.
+	 */
+	public static long getAvailableMemory() {
+		try {
+			return readKilobytes(new File(PROC, "meminfo"), "MemAvailable:");
+		}
+		catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the total resident memory of each of the given processes including all of their descendants,
+	 * since runs may be started through a wrapper such as nice or a shell.
+	 */
+	public static Map<Integer, Long> getResidentMemory(Collection<Integer> pids) {
+		final Map<Integer, Integer> parents = Maps.newHashMap();
+
+		final String[] entries = PROC.list();
+		if (entries != null) {
+			for (String entry : entries) {
+				if (!Character.isDigit(entry.charAt(0)))
+					continue;
+
+				final int parent = readParent(entry);
+				if (parent > 0)
+					parents.put(Integer.parseInt(entry), parent);
+			}
+		}
+
+		final Map<Integer, Long> usage = Maps.newHashMap();
+		for (Integer pid : pids)
+			usage.put(pid, 0L);
+
+		// Attribute each process to the closest of the given processes it descends from
+		for (Integer pid : parents.keySet()) {
+			Integer root = pid;
+			while (root != null && !usage.containsKey(root))
+				root = parents.get(root);
+
+			if (root == null)
+				continue;
+
+			try {
+				final long rss = readKilobytes(new File(PROC, pid + "/status"), "VmRSS:");
+				if (rss > 0)
+					usage.put(root, usage.get(root) + rss);
+			}
+			catch (IOException e) {
+				// The process exited while we were looking at it
+			}
+		}
+
+		return usage;
+	}
+
+	/**
+	 * Returns the operating system id of a started process, or -1 if it can't be determined.
+	 */
+	public static int getPid(Process process) {
+		try {
+			// Java 9 onwards exposes the pid directly
+			final Method method = Process.class.getMethod("pid");
+			return ((Number) method.invoke(process)).intValue();
+		}
+		catch (Exception e) {
+			// Fall back to the private field of the UNIX implementation
+		}
+
+		try {
+			final Field field = process.getClass().getDeclaredField("pid");
+			field.setAccessible(true);
+			return field.getInt(process);
+		}
+		catch (Exception e) {
+			return -1;
+		}
+	}
+
+	private static int readParent(String pid) {
+		BufferedReader in = null;
+
+		try {
+			in = new BufferedReader(new FileReader(new File(PROC, pid + "/stat")));
+
+			// The command name is in brackets and may contain spaces, the parent id is the second field after it
+			final String line = in.readLine();
+			final String[] fields = line.substring(line.lastIndexOf(')') + 2).split(" ");
+			return Integer.parseInt(fields[1]);
+		}
+		catch (Exception e) {
+			return -1;
+		}
+		finally {
+			if (in != null) {
+				try {
+					in.close();
+				}
+				catch (IOException e) { }
+			}
+		}
+	}
+
+	private static long readKilobytes(File file, String key) throws IOException {
+		BufferedReader in = null;
+
+		try {
+			in = new BufferedReader(new FileReader(file));
+
+			for (String line;(line = in.readLine()) != null;) {
+				if (!line.startsWith(key))
+					continue;
+
+				final String value = line.substring(key.length()).trim();
+				return Long.parseLong(value.split("\\s+")[0]) * 1024;
+			}
+
+			return -1;
+		}
+		finally {
+			if (in != null)
+				in.close();
+		}
+	}
+
+	private ProcessMemory() { }
+}
@@ -0,0 +1,331 @@
+package com.jamierf.oversim.manager.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Single pass extractor for OMNeT++ version 2 scalar (.sca) files.
+ *
+ * The wanted scalar names are held in an open addressing hash table which is built once and can be shared
+ * between any number of threads. Lines are scanned directly inside the read buffer, so the only allocations
+ * made while reading scalars are for the values which are actually recorded.
+ *
+ * Lines are matched the same way as by the regex used previously, with each wanted name quoted:
+ * <pre>^scalar\s+([\w\.\d\[\]]+)\s+"(\Qwanted\E|\Qnames\E)"\s+(.+)$</pre>
+ */
+public class ScalarExtractor {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	protected final String[] wantedScalars;
+	protected final String[] table;
+	protected final int mask;
+
+	public ScalarExtractor(String[] wantedScalars) {
+		this.wantedScalars = wantedScalars.clone();
+
+		// Size the table to at most half full so probe sequences stay short
+		int size = 16;
+		while (size < wantedScalars.length * 2)
+			size <<= 1;
+
+		table = new String[size];
+		mask = size - 1;
+
+		for (String name : wantedScalars) {
+			int slot = name.hashCode() & mask;
+			while (table[slot] != null && !table[slot].equals(name))
+				slot = (slot + 1) & mask;
+
+			table[slot] = name;
+		}
+	}
+
+	public String[] getWantedScalars() {
+		return wantedScalars.clone();
+	}
+
+	public boolean isWanted(String name) {
+		return this.lookup(name.toCharArray(), 0, name.length()) != null;
+	}
+
+	/**
+	 * Reads the header attributes and wanted scalars from the given file into the given maps.
+	 */
+	public void extract(File sca, Map<String, String> attributes, SortedMap<String, String> scalars) throws IOException {
+		final Reader in = new InputStreamReader(new FileInputStream(sca));
+
+		try {
+			final LineScanner scanner = new LineScanner(in);
+
+			// Read the version number and check it is what we expect
+			if (!scanner.next() || !scanner.isVersion2())
+				throw new RuntimeException("Unrecognised scalar result file version.");
+
+			// Skip the run identifier
+			scanner.next();
+
+			// Read the header, when we reach an empty line it signifies the end of the header
+			while (scanner.next() && !scanner.isEmpty())
+				scanner.parseAttribute(attributes);
+
+			// Confirm we have iterationvars, otherwise we don't have anything to use as a unique identifier
+			if (!attributes.containsKey("iterationvars"))
+				throw new RuntimeException("Malformed scalar file, no iterationvars found: " + sca.getCanonicalPath());
+
+			// Read the scalars, when we reach an empty line it signifies the end of the scalars
+			while (scanner.next() && !scanner.isEmpty())
+				scanner.parseScalar(scalars);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	protected String lookup(char[] chars, int start, int end) {
+		int hash = 0;
+		for (int i = start;i < end;i++)
+			hash = 31 * hash + chars[i];
+
+		final int length = end - start;
+		for (int slot = hash & mask;table[slot] != null;slot = (slot + 1) & mask) {
+			final String candidate = table[slot];
+			if (candidate.length() != length)
+				continue;
+
+			int i = 0;
+			while (i < length && candidate.charAt(i) == chars[start + i])
+				i++;
+
+			if (i == length)
+				return candidate;
+		}
+
+		return null;
+	}
+
+	private static boolean isWhitespace(char c) {
+		// Matches the regex \s character class
+		return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+	}
+
+	private static boolean isWordChar(char c) {
+		// Matches the regex \w character class
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	private static boolean isModuleChar(char c) {
+		return isWordChar(c) || c == '.' || c == '[' || c == ']';
+	}
+
+	/**
+	 * Splits the input into lines using the same terminators as BufferedReader, exposing each line as a range
+	 * of the internal buffer rather than as a String.
+	 */
+	private class LineScanner {
+
+		private final Reader in;
+		private char[] buffer;
+		private int limit;
+		private int position;
+		private boolean eof;
+		private boolean skipLF;
+
+		private int start;
+		private int end;
+
+		public LineScanner(Reader in) {
+			this.in = in;
+
+			buffer = new char[BUFFER_SIZE];
+			limit = 0;
+			position = 0;
+			eof = false;
+			skipLF = false;
+		}
+
+		public boolean next() throws IOException {
+			int scan = position;
+
+			while (true) {
+				if (skipLF) {
+					if (scan == limit) {
+						scan = this.fill(scan);
+						if (scan == limit && eof)
+							return false;
+					}
+
+					skipLF = false;
+					if (buffer[scan] == '\n') {
+						scan++;
+						position = scan;
+					}
+				}
+
+				while (scan < limit) {
+					final char c = buffer[scan];
+					if (c == '\n' || c == '\r') {
+						start = position;
+						end = scan;
+
+						position = scan + 1;
+						skipLF = c == '\r';
+						return true;
+					}
+
+					scan++;
+				}
+
+				if (eof) {
+					// A trailing line without a terminator is still a line
+					if (position == limit)
+						return false;
+
+					start = position;
+					end = limit;
+					position = limit;
+					return true;
+				}
+
+				scan = this.fill(scan);
+			}
+		}
+
+		/**
+		 * Moves any partial line to the start of the buffer and reads more data in behind it, returning the
+		 * adjusted scan offset.
+		 */
+		private int fill(int scan) throws IOException {
+			final int remaining = limit - position;
+			if (position > 0) {
+				System.arraycopy(buffer, position, buffer, 0, remaining);
+				scan -= position;
+				position = 0;
+				limit = remaining;
+			}
+
+			// A single line longer than the buffer, make room for it
+			if (limit == buffer.length)
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+			final int read = in.read(buffer, limit, buffer.length - limit);
+			if (read < 0)
+				eof = true;
+			else
+				limit += read;
+
+			return scan;
+		}
+
+		public boolean isEmpty() {
+			return start == end;
+		}
+
+		public boolean isVersion2() {
+			return end - start == 9 && this.startsWith(start, "version") && isWhitespace(buffer[start + 7]) && buffer[start + 8] == '2';
+		}
+
+		private boolean startsWith(int offset, String prefix) {
+			if (end - offset < prefix.length())
+				return false;
+
+			for (int i = 0;i < prefix.length();i++) {
+				if (buffer[offset + i] != prefix.charAt(i))
+					return false;
+			}
+
+			return true;
+		}
+
+		private int skipWhitespace(int offset) {
+			while (offset < end && isWhitespace(buffer[offset]))
+				offset++;
+
+			return offset;
+		}
+
+		/**
+		 * Finds the start of a trailing .+ value following a mandatory run of whitespace, mirroring the
+		 * backtracking behaviour of \s+(.+)$ when the line ends in whitespace. Returns -1 if there is no value.
+		 */
+		private int valueStart(int offset) {
+			final int value = this.skipWhitespace(offset);
+			if (value == offset)
+				return -1;
+
+			if (value < end)
+				return value;
+
+			// Only whitespace remains, the final whitespace character becomes the value if there are at least 2
+			return value - offset >= 2 ? end - 1 : -1;
+		}
+
+		public void parseAttribute(Map<String, String> attributes) {
+			// ^attr\s+(\w+)\s+(.+)$
+			if (!this.startsWith(start, "attr"))
+				return;
+
+			final int nameStart = this.skipWhitespace(start + 4);
+			if (nameStart == start + 4)
+				return;
+
+			int nameEnd = nameStart;
+			while (nameEnd < end && isWordChar(buffer[nameEnd]))
+				nameEnd++;
+
+			if (nameEnd == nameStart)
+				return;
+
+			final int value = this.valueStart(nameEnd);
+			if (value < 0)
+				return;
+
+			attributes.put(new String(buffer, nameStart, nameEnd - nameStart), new String(buffer, value, end - value));
+		}
+
+		public void parseScalar(SortedMap<String, String> scalars) {
+			// ^scalar\s+([\w\.\d\[\]]+)\s+"(wanted)"\s+(.+)$
+			if (!this.startsWith(start, "scalar"))
+				return;
+
+			final int moduleStart = this.skipWhitespace(start + 6);
+			if (moduleStart == start + 6)
+				return;
+
+			int moduleEnd = moduleStart;
+			while (moduleEnd < end && isModuleChar(buffer[moduleEnd]))
+				moduleEnd++;
+
+			if (moduleEnd == moduleStart)
+				return;
+
+			final int quote = this.skipWhitespace(moduleEnd);
+			if (quote == moduleEnd || quote == end || buffer[quote] != '"')
+				return;
+
+			// The name may itself contain quotes, so try every closing quote until one gives a wanted name
+			for (int close = quote + 1;close < end;close++) {
+				if (buffer[close] != '"')
+					continue;
+
+				final String name = lookup(buffer, quote + 1, close);
+				if (name == null)
+					continue;
+
+				final int value = this.valueStart(close + 1);
+				if (value < 0)
+					continue;
+
+				// Record the scalar
+				scalars.put(name, new String(buffer, value, end - value));
+				return;
+			}
+		}
+	}
+}
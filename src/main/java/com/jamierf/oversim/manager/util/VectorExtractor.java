@@ -0,0 +1,325 @@
+package com.jamierf.oversim.manager.util;
+
+import com.google.common.collect.Lists;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * Aggregates the wanted vectors of a run from its OMNeT++ version 2 vector (.vec) file.
+ *
+ * The .vci index written alongside the vector file lists where the blocks of each vector are, so only the blocks
+ * of the wanted vectors are read, straight out of a memory mapping of the vector file. Each wanted vector is
+ * reduced to a handful of values, added alongside the scalars of the run:
+ * <pre>
+ *   name.vector.count     the number of values recorded
+ *   name.vector.mean      the mean of the values
+ *   name.vector.timemean  the mean weighted by how long each value held, until the next one was recorded
+ *   name.vector.min       the smallest value
+ *   name.vector.max       the largest value
+ * </pre>
+ * A vector recorded by several modules under the same name is aggregated as a single vector.
+ */
+public class VectorExtractor {
+
+	protected final String[] wantedVectors;
+	protected final Set<String> wanted;
+
+	public VectorExtractor(String[] wantedVectors) {
+		this.wantedVectors = wantedVectors.clone();
+
+		wanted = new HashSet<String>();
+		for (String name : wantedVectors)
+			wanted.add(name);
+	}
+
+	public String[] getWantedVectors() {
+		return wantedVectors.clone();
+	}
+
+	/**
+	 * Reads the wanted vectors from the given vector file, using the given index, adding their aggregates to the
+	 * given scalars.
+	 */
+	public void extract(File vec, File vci, SortedMap<String, String> scalars) throws IOException {
+		if (!vci.exists())
+			throw new FileNotFoundException("Unable to find vector index: " + vci.getCanonicalPath());
+
+		final Map<Integer, Vector> vectors = this.readIndex(vci, vec.length());
+		if (vectors.isEmpty())
+			return;
+
+		final Map<String, Aggregate> aggregates = new LinkedHashMap<String, Aggregate>();
+		final FileInputStream in = new FileInputStream(vec);
+
+		try {
+			final FileChannel channel = in.getChannel();
+			final long size = channel.size();
+
+			// Map the whole file once where possible, only files over 2GB need mapping block by block
+			final ByteBuffer whole = size <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+
+			for (Map.Entry<Integer, Vector> entry : vectors.entrySet()) {
+				final Vector vector = entry.getValue();
+
+				Aggregate aggregate = aggregates.get(vector.name);
+				if (aggregate == null) {
+					aggregate = new Aggregate();
+					aggregates.put(vector.name, aggregate);
+				}
+
+				// Each vector is a separate step function, so it starts afresh
+				aggregate.startVector();
+
+				for (long[] block : vector.blocks) {
+					final ByteBuffer buffer;
+					if (whole != null) {
+						buffer = whole.duplicate();
+						buffer.limit((int) (block[0] + block[1]));
+						buffer.position((int) block[0]);
+					}
+					else {
+						buffer = channel.map(FileChannel.MapMode.READ_ONLY, block[0], block[1]);
+					}
+
+					this.readBlock(buffer, entry.getKey(), vector, aggregate);
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+
+		for (Map.Entry<String, Aggregate> entry : aggregates.entrySet())
+			entry.getValue().addTo(entry.getKey(), scalars);
+	}
+
+	/**
+	 * Reads the wanted vectors and the locations of their blocks from the given index.
+	 */
+	protected Map<Integer, Vector> readIndex(File vci, long vecLength) throws IOException {
+		final Map<Integer, Vector> vectors = new LinkedHashMap<Integer, Vector>();
+		final BufferedReader in = new BufferedReader(new FileReader(vci));
+
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.isEmpty())
+					continue;
+
+				if (Character.isDigit(line.charAt(0))) {
+					// A block: vector id, offset, length, then the statistics of the block which we don't need
+					final String[] fields = line.split("\\s+", 4);
+					if (fields.length < 3)
+						throw new IOException("Malformed vector index, bad block: " + line);
+
+					final Vector vector = vectors.get(Integer.valueOf(fields[0]));
+					if (vector != null)
+						vector.blocks.add(new long[]{ Long.parseLong(fields[1]), Long.parseLong(fields[2]) });
+
+					continue;
+				}
+
+				final List<String> fields = tokenize(line);
+
+				if (fields.get(0).equals("file")) {
+					// The index records the size of the vector file it was made from, make sure it still matches
+					if (fields.size() < 2 || Long.parseLong(fields.get(1)) != vecLength)
+						throw new IOException("Vector index is out of date: " + vci.getCanonicalPath());
+				}
+				else if (fields.get(0).equals("vector")) {
+					// vector id module name [columns]
+					if (fields.size() < 4)
+						throw new IOException("Malformed vector index, bad vector: " + line);
+
+					if (wanted.contains(fields.get(3)))
+						vectors.put(Integer.valueOf(fields.get(1)), new Vector(fields.get(3), fields.size() > 4 ? fields.get(4) : "TV"));
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+
+		return vectors;
+	}
+
+	/**
+	 * Folds every value of a single block into the given aggregate.
+	 */
+	protected void readBlock(ByteBuffer buffer, int id, Vector vector, Aggregate aggregate) throws IOException {
+		final StringBuilder field = new StringBuilder(32);
+		final String columns = vector.columns;
+
+		double time = Double.NaN;
+		int column = -1;
+
+		while (buffer.hasRemaining()) {
+			final byte b = buffer.get();
+
+			if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+				field.append((char) b);
+
+				if (buffer.hasRemaining())
+					continue;
+			}
+
+			if (field.length() == 0) {
+				if (b == '\n')
+					column = -1;
+
+				continue;
+			}
+
+			// The first field of each line is the vector id, the rest are given by the column letters
+			if (column < 0) {
+				if (Integer.parseInt(field.toString()) != id)
+					throw new IOException("Vector index does not match vector file, expected vector " + id + " but found " + field);
+			}
+			else if (column < columns.length()) {
+				final char type = columns.charAt(column);
+				if (type == 'T')
+					time = Double.parseDouble(field.toString());
+				else if (type == 'V')
+					aggregate.addValue(time, Double.parseDouble(field.toString()));
+			}
+
+			field.setLength(0);
+			column = b == '\n' ? -1 : column + 1;
+		}
+	}
+
+	/**
+	 * Splits a line on whitespace, keeping quoted strings together and unescaping them.
+	 */
+	private static List<String> tokenize(String line) {
+		final List<String> tokens = Lists.newArrayList();
+		final StringBuilder token = new StringBuilder();
+
+		boolean quoted = false;
+		boolean inToken = false;
+
+		for (int i = 0;i < line.length();i++) {
+			final char c = line.charAt(i);
+
+			if (quoted) {
+				if (c == '\\' && i + 1 < line.length())
+					token.append(line.charAt(++i));
+				else if (c == '"')
+					quoted = false;
+				else
+					token.append(c);
+			}
+			else if (c == '"') {
+				quoted = true;
+				inToken = true;
+			}
+			else if (Character.isWhitespace(c)) {
+				if (inToken) {
+					tokens.add(token.toString());
+					token.setLength(0);
+					inToken = false;
+				}
+			}
+			else {
+				token.append(c);
+				inToken = true;
+			}
+		}
+
+		if (inToken)
+			tokens.add(token.toString());
+
+		return tokens;
+	}
+
+	protected static class Vector {
+
+		protected final String name;
+		protected final String columns;
+		protected final List<long[]> blocks;
+
+		public Vector(String name, String columns) {
+			this.name = name;
+			this.columns = columns;
+
+			blocks = Lists.newArrayList();
+		}
+	}
+
+	/**
+	 * Streaming aggregates of every value of a vector, in constant memory.
+	 */
+	protected static class Aggregate {
+
+		protected long count;
+		protected double sum;
+		protected double min;
+		protected double max;
+		protected double area;
+		protected double duration;
+		protected double lastTime;
+		protected double lastValue;
+
+		public Aggregate() {
+			count = 0;
+			sum = 0;
+			min = Double.NaN;
+			max = Double.NaN;
+			area = 0;
+			duration = 0;
+
+			this.startVector();
+		}
+
+		public void startVector() {
+			lastTime = Double.NaN;
+			lastValue = Double.NaN;
+		}
+
+		public void addValue(double time, double value) {
+			count++;
+			sum += value;
+
+			if (value < min || Double.isNaN(min))
+				min = value;
+
+			if (value > max || Double.isNaN(max))
+				max = value;
+
+			// The previous value held from when it was recorded until now
+			if (!Double.isNaN(lastTime) && !Double.isNaN(time) && time > lastTime) {
+				area += lastValue * (time - lastTime);
+				duration += time - lastTime;
+			}
+
+			lastTime = time;
+			lastValue = value;
+		}
+
+		public void addTo(String name, SortedMap<String, String> scalars) {
+			if (count == 0)
+				return;
+
+			scalars.put(name + ".vector.count", String.valueOf(count));
+			scalars.put(name + ".vector.mean", String.valueOf(sum / count));
+			scalars.put(name + ".vector.min", String.valueOf(min));
+			scalars.put(name + ".vector.max", String.valueOf(max));
+
+			if (duration > 0)
+				scalars.put(name + ".vector.timemean", String.valueOf(area / duration));
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package com.jamierf.oversim.manager;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ParseCacheTest {
+
+	private static final long WANTED = ParseCache.hashWanted(new String[]{ "a", "b" }, new String[0]);
+
+	private static final SortedMap<String, String> SCALARS = ImmutableSortedMap.of("a", "1.5", "b", "nan");
+	private static final SortedMap<String, String> OTHER_SCALARS = ImmutableSortedMap.of("a", "2", "c", "3");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File cacheFile;
+	private File sca;
+
+	@Before
+	public void setUp() throws IOException {
+		cacheFile = new File(folder.getRoot(), ".parsecache");
+		sca = this.write("Test-0.sca", "version 2\n");
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		final File other = this.write("Test-1.sca", "version 2\nrun Test-1\n");
+
+		ParseCache cache = new ParseCache(cacheFile, WANTED, false);
+		try {
+			assertNull(get(cache, sca));
+
+			cache.put(sca, "\"$n=1, $m=2\"", SCALARS);
+			cache.put(other, "$n=2", OTHER_SCALARS);
+
+			assertCached(cache, sca, "\"$n=1, $m=2\"", SCALARS);
+			assertEquals(1, cache.getMisses());
+			assertEquals(1, cache.getHits());
+		}
+		finally {
+			cache.close();
+		}
+
+		// The names shared between runs are only written once, and still read back correctly
+		cache = new ParseCache(cacheFile, WANTED, false);
+		try {
+			assertCached(cache, sca, "\"$n=1, $m=2\"", SCALARS);
+			assertCached(cache, other, "$n=2", OTHER_SCALARS);
+		}
+		finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void changedScalarFilesAreNotServed() throws IOException {
+		this.put(false, sca);
+
+		// A different size
+		Files.append("run Test-0\n", sca, Charsets.UTF_8);
+		assertNull(this.reopenAndGet(false, sca));
+
+		// The same size, but a different modification time
+		this.put(false, sca);
+		assertTrue(sca.setLastModified(sca.lastModified() - 10000));
+		assertNull(this.reopenAndGet(false, sca));
+	}
+
+	@Test
+	public void otherWantedNamesAreNotServed() throws IOException {
+		this.put(false, sca);
+
+		assertNull(reopenAndGet(ParseCache.hashWanted(new String[]{ "a" }, new String[0]), false, sca));
+		assertNull(reopenAndGet(ParseCache.hashWanted(new String[]{ "a", "b" }, new String[]{ "c" }), false, sca));
+
+		// The order names are listed in doesn't matter, but the entry was dropped when another hash was used
+		assertEquals(WANTED, ParseCache.hashWanted(new String[]{ "b", "a" }, new String[0]));
+		assertNull(this.reopenAndGet(false, sca));
+	}
+
+	@Test
+	public void changedVectorFilesAreNotServedWhenVectorsAreWanted() throws IOException {
+		final File vec = this.write("Test-0.vec", "version 2\n");
+		final File vci = this.write("Test-0.vci", "file 10 0\n");
+
+		this.put(true, sca);
+		assertEquals("$n=1", this.reopenAndGet(true, sca));
+
+		// Vectors aren't looked at when they aren't wanted
+		this.put(false, sca);
+		Files.append("0\t1\t2\t3\n", vec, Charsets.UTF_8);
+		assertEquals("$n=1", this.reopenAndGet(false, sca));
+
+		this.put(true, sca);
+		Files.append("0\t1\t2\t3\n", vec, Charsets.UTF_8);
+		assertNull(this.reopenAndGet(true, sca));
+
+		this.put(true, sca);
+		assertTrue(vci.setLastModified(vci.lastModified() - 10000));
+		assertNull(this.reopenAndGet(true, sca));
+
+		// Nor can a vector file appear or disappear unnoticed
+		this.put(true, sca);
+		assertTrue(vci.delete());
+		assertNull(this.reopenAndGet(true, sca));
+
+		this.put(true, sca);
+		this.write("Test-0.vci", "file 10 0\n");
+		assertNull(this.reopenAndGet(true, sca));
+	}
+
+	@Test
+	public void truncatedRecordIsDropped() throws IOException {
+		final File other = this.write("Test-1.sca", "version 2\nrun Test-1\n");
+
+		this.put(false, sca);
+		final long complete = cacheFile.length();
+
+		this.put(false, other);
+
+		// Lose the end of the last record, as if we were killed while writing it
+		final RandomAccessFile file = new RandomAccessFile(cacheFile, "rw");
+		try {
+			file.setLength(cacheFile.length() - 3);
+		}
+		finally {
+			file.close();
+		}
+
+		ParseCache cache = new ParseCache(cacheFile, WANTED, false);
+		try {
+			assertEquals(complete, cacheFile.length());
+			assertEquals("$n=1", get(cache, sca));
+			assertNull(get(cache, other));
+
+			// New records follow on from the last complete one
+			cache.put(other, "$n=2", OTHER_SCALARS);
+		}
+		finally {
+			cache.close();
+		}
+
+		cache = new ParseCache(cacheFile, WANTED, false);
+		try {
+			assertCached(cache, sca, "$n=1", SCALARS);
+			assertCached(cache, other, "$n=2", OTHER_SCALARS);
+		}
+		finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void reopensAfterRewrite() throws IOException {
+		final File other = this.write("Test-1.sca", "version 2\nrun Test-1\n");
+
+		// Parsing the same file again leaves its first record stale
+		ParseCache cache = new ParseCache(cacheFile, WANTED, false);
+		try {
+			cache.put(sca, "$n=0", OTHER_SCALARS);
+			cache.put(other, "$n=2", OTHER_SCALARS);
+			cache.put(sca, "$n=1", SCALARS);
+		}
+		finally {
+			cache.close();
+		}
+
+		final long stale = cacheFile.length();
+
+		// Opening drops the stale record by writing a fresh cache alongside and moving it into place
+		cache = new ParseCache(cacheFile, WANTED, false);
+		try {
+			assertTrue(cacheFile.length() < stale);
+			assertFalse(new File(cacheFile.getPath() + ".tmp").exists());
+
+			assertCached(cache, sca, "$n=1", SCALARS);
+			assertCached(cache, other, "$n=2", OTHER_SCALARS);
+		}
+		finally {
+			cache.close();
+		}
+
+		final long rewritten = cacheFile.length();
+
+		// Nothing is stale any more, so the rewritten cache is used as it is
+		cache = new ParseCache(cacheFile, WANTED, false);
+		try {
+			assertEquals(rewritten, cacheFile.length());
+
+			assertCached(cache, sca, "$n=1", SCALARS);
+			assertCached(cache, other, "$n=2", OTHER_SCALARS);
+		}
+		finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void unreadableCachesAreReplaced() throws IOException {
+		Files.write("not a parse cache", cacheFile, Charsets.UTF_8);
+
+		final ParseCache cache = new ParseCache(cacheFile, WANTED, false);
+		try {
+			assertNull(get(cache, sca));
+
+			cache.put(sca, "$n=1", SCALARS);
+			assertCached(cache, sca, "$n=1", SCALARS);
+		}
+		finally {
+			cache.close();
+		}
+
+		assertNotEquals("not a parse cache", Files.toString(cacheFile, Charsets.UTF_8));
+		assertEquals("$n=1", this.reopenAndGet(false, sca));
+	}
+
+	private File write(String name, String contents) throws IOException {
+		final File file = new File(folder.getRoot(), name);
+		Files.write(contents, file, Charsets.UTF_8);
+
+		return file;
+	}
+
+	private void put(boolean vectors, File file) throws IOException {
+		final ParseCache cache = new ParseCache(cacheFile, WANTED, vectors);
+		try {
+			cache.put(file, "$n=1", SCALARS);
+		}
+		finally {
+			cache.close();
+		}
+	}
+
+	private String reopenAndGet(boolean vectors, File file) throws IOException {
+		return reopenAndGet(WANTED, vectors, file);
+	}
+
+	private String reopenAndGet(long wanted, boolean vectors, File file) throws IOException {
+		final ParseCache cache = new ParseCache(cacheFile, wanted, vectors);
+		try {
+			return get(cache, file);
+		}
+		finally {
+			cache.close();
+		}
+	}
+
+	private static String get(ParseCache cache, File file) throws IOException {
+		return cache.get(file, new TreeMap<String, String>());
+	}
+
+	private static void assertCached(ParseCache cache, File file, String uid, SortedMap<String, String> scalars) throws IOException {
+		final SortedMap<String, String> cached = new TreeMap<String, String>();
+
+		assertEquals(uid, cache.get(file, cached));
+		assertEquals(scalars, cached);
+	}
+}
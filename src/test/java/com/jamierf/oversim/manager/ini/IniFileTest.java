@@ -0,0 +1,108 @@
+package com.jamierf.oversim.manager.ini;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IniFileTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void entriesBeforeAnySectionBelongToGeneral() throws IOException {
+		final IniFile ini = this.parse("network = OverSim\n\n[Config Chord]\n**.overlayType = \"oversim.overlay.chord.ChordModules\"\n");
+
+		assertEquals("OverSim", ini.getSection(IniFile.GENERAL).get("network"));
+		assertEquals("\"oversim.overlay.chord.ChordModules\"", ini.getSection("Chord").get("**.overlayType"));
+		assertFalse(ini.hasSection("Config Chord"));
+	}
+
+	@Test
+	public void keepsEntriesInOrder() throws IOException {
+		final Map<String, String> section = this.parse("[Config A]\nz = 1\na = 2\nm = 3\n").getSection("A");
+
+		assertEquals(Arrays.asList("z", "a", "m"), Lists.newArrayList(section.keySet()));
+	}
+
+	@Test
+	public void stripsCommentsOutsideQuotes() throws IOException {
+		final Map<String, String> section = this.parse("[General]\na = 1 # one\nb = \"#not a comment\" # but this is\nc = \"say \\\"#\\\"\"\n# d = 4\n").getSection(IniFile.GENERAL);
+
+		assertEquals("1", section.get("a"));
+		assertEquals("\"#not a comment\"", section.get("b"));
+		assertEquals("\"say \\\"#\\\"\"", section.get("c"));
+		assertFalse(section.containsKey("d"));
+	}
+
+	@Test
+	public void joinsContinuedLines() throws IOException {
+		final Map<String, String> section = this.parse("[General]\na = ${1, \\\n2, \\\n3}\nb = 4\n").getSection(IniFile.GENERAL);
+
+		assertEquals("${1, 2, 3}", section.get("a"));
+		assertEquals("4", section.get("b"));
+	}
+
+	@Test
+	public void includedFilesCanChangeTheSection() throws IOException {
+		Files.write("a = 1\n[Config Included]\nb = 2\n", new File(folder.getRoot(), "included.ini"), Charsets.UTF_8);
+
+		final IniFile ini = this.parse("[Config Outer]\ninclude included.ini\nc = 3\n");
+
+		assertEquals("1", ini.getSection("Outer").get("a"));
+		assertEquals("2", ini.getSection("Included").get("b"));
+		assertEquals("3", ini.getSection("Included").get("c"));
+		assertNull(ini.getSection("Outer").get("c"));
+	}
+
+	@Test
+	public void missingSectionsAreNull() throws IOException {
+		final IniFile ini = this.parse("[Config A]\na = 1\n");
+
+		assertTrue(ini.hasSection("A"));
+		assertFalse(ini.hasSection(IniFile.GENERAL));
+		assertNull(ini.getSection("B"));
+	}
+
+	@Test
+	public void rejectsRecursiveIncludes() throws IOException {
+		Files.write("include omnetpp.ini\n", new File(folder.getRoot(), "included.ini"), Charsets.UTF_8);
+
+		assertMalformed("include included.ini\n");
+	}
+
+	@Test
+	public void rejectsMalformedLines() throws IOException {
+		assertMalformed("[Config A\n");
+		assertMalformed("[Config A]\nnot an entry\n");
+	}
+
+	private IniFile parse(String contents) throws IOException {
+		final File file = new File(folder.getRoot(), "omnetpp.ini");
+		Files.write(contents, file, Charsets.UTF_8);
+
+		return new IniFile(file);
+	}
+
+	private void assertMalformed(String contents) {
+		try {
+			this.parse(contents);
+			fail("Parsed malformed file: " + contents);
+		}
+		catch (IOException e) { }
+	}
+}
@@ -0,0 +1,156 @@
+package com.jamierf.oversim.manager.ini;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.jamierf.oversim.manager.util.ScalarExtractor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SweepExpanderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void runsWithRepetitionsInnermost() throws IOException {
+		final List<String> runs = this.expand("[Config A]\n**.a = ${a=1,2}\n**.b = ${b=x,y,z}\nrepeat = 2\n", "A");
+
+		final List<String> expected = Lists.newArrayList();
+		for (String a : Arrays.asList("1", "2")) {
+			for (String b : Arrays.asList("x", "y", "z"))
+				expected.addAll(Collections.nCopies(2, "\"$a=" + a + ", $b=" + b + "\""));
+		}
+
+		assertEquals(expected, runs);
+	}
+
+	@Test
+	public void configVariablesAreOutsideThoseOfExtendedConfigsAndGeneral() throws IOException {
+		final List<String> runs = this.expand("[General]\n**.g = ${g=1,2}\n\n[Config Base]\n**.b = ${b=1,2}\n\n[Config A]\nextends = Base\n**.a = ${a=1,2}\n", "A");
+
+		assertEquals(8, runs.size());
+		assertEquals("\"$a=1, $b=1, $g=1\"", runs.get(0));
+		assertEquals("\"$a=1, $b=1, $g=2\"", runs.get(1));
+		assertEquals("\"$a=1, $b=2, $g=1\"", runs.get(2));
+		assertEquals("\"$a=2, $b=1, $g=1\"", runs.get(4));
+		assertEquals("\"$a=2, $b=2, $g=2\"", runs.get(7));
+	}
+
+	@Test
+	public void extendsChainEndsAtGeneral() throws IOException {
+		final String ini = "[General]\n**.g = ${g=1,2}\n\n[Config C]\n**.c = ${c=1}\n\n[Config B]\nextends = C\n**.b = ${b=1}\n\n[Config A]\nextends = B\n";
+
+		assertEquals(Arrays.asList("\"$b=1, $c=1, $g=1\"", "\"$b=1, $c=1, $g=2\""), this.expand(ini, "A"));
+		assertEquals(Arrays.asList("$g=1", "$g=2"), this.expand(ini, IniFile.GENERAL));
+
+		// [General] is only visited once, even when named explicitly
+		assertEquals(2, this.expand(ini + "\n[Config D]\nextends = General\n", "D").size());
+	}
+
+	@Test
+	public void missingConfigsHaveNoRuns() throws IOException {
+		assertEquals(Collections.<String>emptyList(), this.expand("[Config A]\n**.a = 1\n", "B"));
+		assertEquals(Collections.<String>emptyList(), this.expand("[Config A]\n**.a = 1\n", IniFile.GENERAL));
+	}
+
+	@Test
+	public void unnamedVariablesAreNumberedInOrder() throws IOException {
+		final List<String> runs = this.expand("[Config A]\n**.x = ${1,2}\n**.n = ${n=5}\n**.y = ${\"a b\", c}\n", "A");
+
+		assertEquals(Arrays.asList(
+			"\"$0=1, $n=5, $1=\\\"a b\\\"\"",
+			"\"$0=1, $n=5, $1=c\"",
+			"\"$0=2, $n=5, $1=\\\"a b\\\"\"",
+			"\"$0=2, $n=5, $1=c\""
+		), runs);
+	}
+
+	@Test
+	public void referencesAreNotVariables() throws IOException {
+		assertEquals(Arrays.asList("$a=1", "$a=2"), this.expand("[Config A]\n**.a = ${a=1,2}\n**.b = ${a}\nseed-set = ${repetition}\n", "A"));
+	}
+
+	@Test
+	public void rangesWithDecimalSteps() throws IOException {
+		assertEquals(Arrays.asList("$a=0.1", "$a=0.3", "$a=0.5"), this.expand("[Config A]\n**.a = ${a=0.1..0.5 step 0.2}\n", "A"));
+		assertEquals(Arrays.asList("$a=1", "$a=1.25", "$a=1.5", "$a=1.75", "$a=2"), this.expand("[Config A]\n**.a = ${a=1..2 step 0.25}\n", "A"));
+		assertEquals(Arrays.asList("$a=-0.5", "$a=0", "$a=0.5"), this.expand("[Config A]\n**.a = ${a=-0.5..0.5 step 0.5}\n", "A"));
+
+		// A range stops at the last step which doesn't pass its end
+		assertEquals(Arrays.asList("$a=0", "$a=0.4", "$a=0.8"), this.expand("[Config A]\n**.a = ${a=0..1 step 0.4}\n", "A"));
+
+		// Ranges and single values can be mixed
+		assertEquals(Arrays.asList("$a=1", "$a=2", "$a=3", "$a=10"), this.expand("[Config A]\n**.a = ${a=1..3, 10}\n", "A"));
+	}
+
+	@Test
+	public void repeatOfTheConfigComesFirst() throws IOException {
+		final String ini = "[General]\nrepeat = 4\n\n[Config Base]\nrepeat = 3\n\n[Config A]\nextends = Base\nrepeat = 2\n\n[Config B]\nextends = Base\n\n[Config C]\n**.c = 1\n";
+
+		assertEquals(2, this.expand(ini, "A").size());
+		assertEquals(3, this.expand(ini, "B").size());
+		assertEquals(4, this.expand(ini, "C").size());
+		assertEquals(1, this.expand("[Config A]\n**.a = 1\n", "A").size());
+	}
+
+	@Test
+	public void iterationVarsMatchScalarFileHeaders() throws IOException, URISyntaxException {
+		final File ini = new File(this.getClass().getResource("omnetpp.ini").toURI());
+		final ScalarExtractor extractor = new ScalarExtractor(new String[0]);
+
+		for (String name : Arrays.asList("ChordSweep-5.sca", "KademliaSweep-3.sca")) {
+			final File sca = new File(ini.getParentFile(), name);
+
+			final Map<String, String> attributes = new HashMap<String, String>();
+			extractor.extract(sca, attributes, new TreeMap<String, String>());
+
+			final List<String> runs = SweepExpander.expand(new IniFile(ini), attributes.get("configname"));
+			assertEquals(name, attributes.get("iterationvars"), runs.get(Integer.parseInt(attributes.get("runnumber"))));
+		}
+	}
+
+	@Test
+	public void unsupportedConfigsThrow() throws IOException {
+		assertUnsupported("[Config A]\n**.a = ${a=1..3}\n**.b = ${b=1..3}\nconstraint = $a < $b\n", "A");
+		assertUnsupported("[Config A]\n**.a = ${a=1,2}\n**.b = ${b=3,4 ! a}\n", "A");
+		assertUnsupported("[Config A]\n**.a = ${a=1,2}\n**.b = ${b=$a,4}\n", "A");
+		assertUnsupported("[Config A]\n**.a = ${a=1,2}\n**.b = ${b=${a}..4}\n", "A");
+		assertUnsupported("[Config A]\nextends = B, C\n\n[Config B]\n\n[Config C]\n", "A");
+		assertUnsupported("[Config A]\nextends = B\n\n[Config B]\nextends = A\n", "A");
+		assertUnsupported("[Config A]\n**.a = ${a=1}\n**.b = ${a=2}\n", "A");
+		assertUnsupported("[Config A]\n**.a = ${a=1..3 step 0}\n", "A");
+		assertUnsupported("[Config A]\n**.a = ${a=1\n", "A");
+		assertUnsupported("[Config A]\nrepeat = ${2, 3}\n", "A");
+		assertUnsupported("[Config A]\nrepeat = 0\n", "A");
+	}
+
+	private List<String> expand(String contents, String configName) throws IOException {
+		final File file = new File(folder.getRoot(), "omnetpp.ini");
+		Files.write(contents, file, Charsets.UTF_8);
+
+		return SweepExpander.expand(new IniFile(file), configName);
+	}
+
+	private void assertUnsupported(String contents, String configName) throws IOException {
+		try {
+			this.expand(contents, configName);
+			fail("Expanded unsupported config: " + contents);
+		}
+		catch (IOException e) { }
+	}
+}
@@ -0,0 +1,259 @@
+package com.jamierf.oversim.manager.remote;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import com.jamierf.oversim.manager.Manager;
+import com.jamierf.oversim.manager.SimulationConfig;
+import com.jamierf.oversim.manager.runnable.Run;
+import com.jamierf.oversim.manager.runnable.SimulationRun;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs a config entirely on remote workers connected over loopback, with a fake OverSim, killing one of them part
+ * way through a run.
+ */
+public class RemoteWorkersTest {
+
+	private static final int GROUPS = 3;
+	private static final int REPETITIONS = 2;
+	private static final int RUNS = GROUPS * REPETITIONS;
+	private static final int WORKERS = 3;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * A manager which records what happened to each run, and returns from start rather than exiting.
+	 */
+	private static class RecordingManager extends Manager {
+
+		private final Set<Integer> requeued;
+		private final Map<Integer, String> completedBy;
+		private final CountDownLatch finished;
+
+		public RecordingManager(Configuration config) throws IOException, ConfigurationException {
+			super (config);
+
+			requeued = new CopyOnWriteArraySet<Integer>();
+			completedBy = new ConcurrentHashMap<Integer, String>();
+			finished = new CountDownLatch(1);
+		}
+
+		public int getPort() {
+			return coordinator.getPort();
+		}
+
+		@Override
+		public void requeue(Run runnable) {
+			if (runnable instanceof SimulationRun)
+				requeued.add(((SimulationRun) runnable).getRunId());
+
+			super.requeue(runnable);
+		}
+
+		@Override
+		public void completedRemotely(Thread thread, SimulationRun run, String uid, SortedMap<String, String> scalars, long duration) {
+			completedBy.put(run.getRunId(), thread.getName());
+			super.completedRemotely(thread, run, uid, scalars, duration);
+		}
+
+		@Override
+		public synchronized void shutdown() {
+			try {
+				coordinator.close();
+			}
+			catch (IOException e) { }
+
+			finished.countDown();
+		}
+	}
+
+	@Test(timeout = 120000)
+	public void runOfDeadWorkerIsCompletedByAnother() throws Exception {
+		assumeTrue(new File("/bin/bash").exists());
+
+		// Lay out a fake OverSim install, with the executable where the manager looks for it
+		final File root = folder.getRoot();
+		final File workingDir = new File(root, "oversim/simulations");
+		final File overSim = new File(root, "oversim/src/OverSim");
+		final File resultRootDir = new File(workingDir, "results");
+
+		resultRootDir.mkdirs();
+		overSim.getParentFile().mkdirs();
+
+		// Each run takes long enough for a worker to be killed while it is running
+		final String fake = Resources.toString(Resources.getResource(RemoteWorkersTest.class, "fake-oversim.sh"), Charsets.UTF_8);
+		Files.write(fake.replaceFirst("\n", "\nexport FAKE_RUNS=" + RUNS + " FAKE_DURATION=500 FAKE_SCALARS=10 FAKE_REPETITIONS=" + REPETITIONS + "\n"), overSim, Charsets.UTF_8);
+		overSim.setExecutable(true);
+
+		Files.write("[Config Remote]\n**.n = ${N=0.." + (GROUPS - 1) + "}\nrepeat = " + REPETITIONS + "\n", new File(workingDir, "omnetpp.ini"), Charsets.UTF_8);
+
+		// No local simulation threads, so every run has to go to a worker
+		final Configuration config = new BaseConfiguration();
+		config.setProperty("simulation.working-dir", workingDir.getPath());
+		config.setProperty("simulation.max-threads", 0);
+		config.setProperty("remote.port", 0);
+		config.addProperty("data.scalar", "GlobalStatistics: Simulation Time");
+
+		final RecordingManager manager = new RecordingManager(config);
+		manager.addRunConfig("Remote", "1");
+
+		final Thread starter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					manager.start();
+				}
+				catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+
+		starter.setDaemon(true);
+		starter.start();
+
+		// A worker which takes a run and then dies before it finishes
+		final Socket dying = new Socket("127.0.0.1", manager.getPort());
+		final int lostRun = takeRun(dying, "dying-worker");
+
+		// The real workers share their configs, as they would in RunWorker
+		final Map<String, SimulationConfig> configs = new ConcurrentHashMap<String, SimulationConfig>();
+		final List<Worker> workers = Lists.newArrayList();
+
+		for (int i = 0;i < WORKERS;i++) {
+			final Worker worker = new Worker("worker-" + i, "127.0.0.1", manager.getPort(), workingDir, overSim, resultRootDir, false, configs);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+
+		// Let the other workers get going, then kill the connection without a goodbye
+		Thread.sleep(200);
+		dying.setSoLinger(true, 0);
+		dying.close();
+
+		assertTrue("Manager didn't finish", manager.finished.await(100, TimeUnit.SECONDS));
+
+		assertTrue("Run " + lostRun + " wasn't requeued", manager.requeued.contains(lostRun));
+
+		final String completedBy = manager.completedBy.get(lostRun);
+		assertNotNull("Run " + lostRun + " was never completed", completedBy);
+		assertTrue("Run " + lostRun + " was completed by " + completedBy, completedBy.startsWith("WorkerConnection(worker-"));
+
+		assertEquals(RUNS, manager.completedBy.size());
+		assertEquals(RUNS, manager.getCompletedRuns());
+		assertEquals(0, manager.getFailedRuns());
+
+		// Every result was written, including that of the lost run
+		assertTrue(new File(resultRootDir, "Remote-1.csv").isFile());
+		assertTrue(new File(resultRootDir, "Remote-1/Remote-" + lostRun + ".sca").isFile());
+
+		for (Worker worker : workers)
+			assertNotSame(Thread.State.TERMINATED, worker.getState());
+	}
+
+	@Test(timeout = 30000)
+	public void workerExitsWhenCoordinatorGoesQuiet() throws Exception {
+		final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		Socket accepted = null;
+
+		try {
+			final Worker worker = new Worker("quiet-worker", "127.0.0.1", server.getLocalPort(), folder.getRoot(), folder.getRoot(), folder.getRoot(), false);
+			worker.setDaemon(true);
+			worker.start();
+
+			// Welcome the worker with a short heartbeat interval, then never say anything again
+			accepted = server.accept();
+
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(accepted.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(accepted.getOutputStream()));
+
+			Protocol.expect(Protocol.HELLO, in.readByte());
+			assertEquals(Protocol.VERSION, in.readInt());
+			in.readUTF();
+
+			out.writeByte(Protocol.WELCOME);
+			out.writeInt(100);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.flush();
+
+			worker.join(10000);
+			assertFalse("Worker is still waiting on a dead coordinator", worker.isAlive());
+		}
+		finally {
+			if (accepted != null)
+				accepted.close();
+
+			server.close();
+		}
+	}
+
+	/**
+	 * Speaks just enough of the protocol to be given a run, returning its id.
+	 */
+	private static int takeRun(Socket socket, String name) throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+		out.writeByte(Protocol.HELLO);
+		out.writeInt(Protocol.VERSION);
+		out.writeUTF(name);
+		out.flush();
+
+		Protocol.expect(Protocol.WELCOME, in.readByte());
+		in.readInt();
+
+		for (int count = in.readInt();count > 0;count--)
+			in.readUTF();
+
+		for (int count = in.readInt();count > 0;count--)
+			in.readUTF();
+
+		out.writeByte(Protocol.REQUEST);
+		out.flush();
+
+		byte type;
+		while ((type = in.readByte()) == Protocol.HEARTBEAT);
+
+		Protocol.expect(Protocol.RUN, type);
+		in.readUTF();
+		in.readUTF();
+		in.readUTF();
+
+		return in.readInt();
+	}
+}
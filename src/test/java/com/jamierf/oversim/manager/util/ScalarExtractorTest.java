@@ -0,0 +1,223 @@
+package com.jamierf.oversim.manager.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the extractor against the regex based parsing it replaced, with each wanted name quoted as Manager did.
+ */
+public class ScalarExtractorTest {
+
+	// Names from manager.ini, none of which contain regex metacharacters other than "."
+	private static final String[] PLAIN_NAMES = {
+		"GlobalStatistics: Simulation Time",
+		"BaseOverlay: Sent Maintenance Bytes/s.mean",
+		"DHT: Received Normal Bytes/s.mean",
+		"KBRTestApp: Lookup Success Ratio.mean",
+		"Vector: KBRTestApp: Lookup Hop Count.mean",
+	};
+
+	// Names from manager.ini containing parentheses, which only match themselves once quoted
+	private static final String[] METACHARACTER_NAMES = {
+		"EpiChord: Cache live nodes (real).mean",
+		"DHTTestApp: GET Latency (s).mean",
+	};
+
+	private static final String[] UNWANTED_NAMES = {
+		"GlobalStatistics: Simulation Time Total",
+		"KBRTestApp: Lookup Success Ratio.stddev",
+		"Pastry: Sent Maintenance Bytes",
+		"name with \"quotes\" in it",
+	};
+
+	private static final String[] MODULES = { "SimpleOverlay.globalObserver.globalStatistics", "overlayTerminal[12].overlay", "a.b_c[0]" };
+	private static final String[] GAPS = { " ", "\t", "  ", " \t " };
+	private static final String[] VALUES = { "0.5", "12", "-3.25e-05", "nan", "1 2 3", " " };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void matchesRegexForPlainNames() throws IOException {
+		final Random random = new Random(1);
+
+		for (int i = 0;i < 20;i++) {
+			final File sca = this.generate(random, concat(PLAIN_NAMES, UNWANTED_NAMES, mangled(PLAIN_NAMES)));
+
+			assertSameResults(sca, PLAIN_NAMES, legacyPattern(PLAIN_NAMES));
+		}
+	}
+
+	@Test
+	public void matchesRegexForMetacharacterNames() throws IOException {
+		final String[] wanted = concat(PLAIN_NAMES, METACHARACTER_NAMES);
+		final Random random = new Random(2);
+		final Set<String> seen = new HashSet<String>();
+
+		for (int i = 0;i < 20;i++) {
+			final File sca = this.generate(random, concat(wanted, UNWANTED_NAMES, mangled(wanted)));
+
+			seen.addAll(assertSameResults(sca, wanted, legacyPattern(wanted)).keySet());
+		}
+
+		for (String name : METACHARACTER_NAMES)
+			assertTrue(name + " was never extracted", seen.contains(name));
+	}
+
+	private static SortedMap<String, String> assertSameResults(File sca, String[] wanted, Pattern pattern) throws IOException {
+		final Map<String, String> attributes = new HashMap<String, String>();
+		final SortedMap<String, String> scalars = new TreeMap<String, String>();
+		new ScalarExtractor(wanted).extract(sca, attributes, scalars);
+
+		final Map<String, String> legacyAttributes = new HashMap<String, String>();
+		final SortedMap<String, String> legacyScalars = new TreeMap<String, String>();
+		legacyExtract(sca, pattern, legacyAttributes, legacyScalars);
+
+		assertEquals(legacyAttributes, attributes);
+		assertEquals(legacyScalars, scalars);
+		assertFalse(scalars.isEmpty());
+
+		return scalars;
+	}
+
+	/**
+	 * Writes a scalar file with randomly chosen names, spacing and values, along with some malformed lines.
+	 */
+	private File generate(Random random, String[] names) throws IOException {
+		final File sca = folder.newFile();
+		final Writer out = new FileWriter(sca);
+
+		try {
+			out.write("version 2\n");
+			out.write("run Test-" + random.nextInt(100) + "-20120101-00:00:00-1\n");
+			out.write("attr configname Test\n");
+			out.write("attr iterationvars \"$n=" + random.nextInt(10) + "\"\n");
+			out.write("attr" + pick(random, GAPS) + "repetition" + pick(random, GAPS) + random.nextInt(5) + "\r\n");
+			out.write("attr malformed\n");
+			out.write("\n");
+
+			for (int i = 0;i < 200;i++) {
+				switch (random.nextInt(10)) {
+					case 0:
+						// Missing value
+						out.write("scalar " + pick(random, MODULES) + " \"" + pick(random, names) + "\"\n");
+						break;
+					case 1:
+						// Not a scalar line
+						out.write("statistic " + pick(random, MODULES) + " \"" + pick(random, names) + "\" 1\n");
+						break;
+					default:
+						out.write("scalar" + pick(random, GAPS) + pick(random, MODULES) + pick(random, GAPS) + "\"" + pick(random, names) + "\"" + pick(random, GAPS) + pick(random, VALUES) + (random.nextBoolean() ? "\n" : "\r\n"));
+				}
+			}
+
+			out.write("\nscalar " + MODULES[0] + " \"" + names[0] + "\" after-the-end\n");
+		}
+		finally {
+			out.close();
+		}
+
+		return sca;
+	}
+
+	/**
+	 * Builds the regex the extractor replaced, quoting the names as Manager did.
+	 */
+	private static Pattern legacyPattern(String[] wanted) {
+		final String[] names = wanted.clone();
+		for (int i = 0;i < names.length;i++)
+			names[i] = Pattern.quote(names[i]);
+
+		return Pattern.compile("^scalar\\s+([\\w\\.\\d\\[\\]]+)\\s+\"(" + StringUtils.join(names, '|') + ")\"\\s+(.+)$");
+	}
+
+	/**
+	 * The parsing previously done by SimulationData.
+	 */
+	private static void legacyExtract(File sca, Pattern scalarPattern, Map<String, String> attributes, SortedMap<String, String> scalars) throws IOException {
+		final BufferedReader in = new BufferedReader(new FileReader(sca));
+
+		try {
+			final String version = in.readLine();
+			if (!version.matches("^version\\s2$"))
+				throw new RuntimeException("Unrecognised scalar result file version.");
+
+			in.readLine();
+
+			final Pattern headerPattern = Pattern.compile("^attr\\s+(\\w+)\\s+(.+)$");
+			for (String line;(line = in.readLine()) != null;) {
+				if (line.isEmpty())
+					break;
+
+				final Matcher m = headerPattern.matcher(line);
+				if (m.find())
+					attributes.put(m.group(1), m.group(2));
+			}
+
+			for (String line;(line = in.readLine()) != null;) {
+				if (line.isEmpty())
+					break;
+
+				final Matcher m = scalarPattern.matcher(line);
+				if (m.find())
+					scalars.put(m.group(2), m.group(3));
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns each name with every "." replaced, which neither should match.
+	 */
+	private static String[] mangled(String[] names) {
+		final String[] mangled = new String[names.length];
+		for (int i = 0;i < names.length;i++)
+			mangled[i] = names[i].replace('.', 'X');
+
+		return mangled;
+	}
+
+	private static String[] concat(String[]... arrays) {
+		int length = 0;
+		for (String[] array : arrays)
+			length += array.length;
+
+		final String[] result = new String[length];
+
+		int offset = 0;
+		for (String[] array : arrays) {
+			System.arraycopy(array, 0, result, offset, array.length);
+			offset += array.length;
+		}
+
+		return result;
+	}
+
+	private static String pick(Random random, String[] choices) {
+		return choices[random.nextInt(choices.length)];
+	}
+}
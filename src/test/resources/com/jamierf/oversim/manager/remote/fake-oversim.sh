@@ -0,0 +1,49 @@
+#!/bin/bash
+# A stand-in for OverSim, writing just enough of a .sca for the manager to parse. Everything is controlled from
+# the environment:
+#
+#   FAKE_RUNS          the number of runs reported by -x (default: 100)
+#   FAKE_DURATION      how long each run takes in ms (default: 0)
+#   FAKE_SCALARS       the number of scalars written to each .sca (default: 10)
+#   FAKE_REPETITIONS   the number of runs sharing each set of iterationvars (default: 1)
+
+RUNS=${FAKE_RUNS:-100}
+DURATION=${FAKE_DURATION:-0}
+SCALARS=${FAKE_SCALARS:-10}
+REPETITIONS=${FAKE_REPETITIONS:-1}
+
+CONFIG=General
+RUN=0
+RESULT_DIR=results
+
+for arg in "$@"; do
+	case "$arg" in
+		-x*) echo "Config: ${arg#-x}"; echo "Number of runs: $RUNS"; exit 0;;
+		-c*) CONFIG=${arg#-c};;
+		-r*) RUN=${arg#-r};;
+		--result-dir=*) RESULT_DIR=${arg#--result-dir=};;
+	esac
+done
+
+if [ "$DURATION" -gt 0 ]; then
+	sleep "$(awk "BEGIN { print $DURATION / 1000 }")"
+fi
+
+awk -v config="$CONFIG" -v run="$RUN" -v vars="\$N=$(( RUN / REPETITIONS ))" -v repetition="$(( RUN % REPETITIONS ))" -v scalars="$SCALARS" 'BEGIN {
+	srand(run);
+
+	print "version 2";
+	print "run " config "-" run "-20130101-00:00:00-" run;
+	print "attr configname " config;
+	print "attr iterationvars " vars;
+	print "attr repetition " repetition;
+	print "attr runnumber " run;
+	print "";
+
+	print "scalar OverSim.globalObserver.globalStatistics \t\"GlobalStatistics: Simulation Time\" \t" 1000 + rand() * 10;
+	for (i = 0; i < scalars; i++)
+		printf "scalar OverSim.globalObserver.globalStatistics \t\"Module%d: Latency.mean\" \t%f\n", i, rand() * 1000;
+}' > "$RESULT_DIR/$CONFIG-$RUN.sca"
+
+echo "End."
+exit 0